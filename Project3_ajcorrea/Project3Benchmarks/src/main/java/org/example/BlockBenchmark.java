@@ -0,0 +1,89 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for hashing a single block.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BlockBenchmark {
+    private Block block;
+    private byte[] digest;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        block = new Block(1, new Timestamp(System.currentTimeMillis()), "alice pays bob 10", 2);
+        block.setPreviousHash("00a0e939d359f44475b7d9bfeeff666762c9bd8d9e88d938a85cdcb5afe7a038");
+        digest = MessageDigest.getInstance("SHA-256").digest("block".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * One hash attempt, the inner step of proof of work and verification.
+     */
+    @Benchmark
+    public String calculateHash() throws NoSuchAlgorithmException {
+        return block.calculateHash();
+    }
+
+    /**
+     * Hex encoding of a 32-byte digest.
+     */
+    @Benchmark
+    public String bytesToHex() {
+        return BlockHelper.bytesToHex(digest);
+    }
+
+    /**
+     * Proof of work on a fresh block for each call, so every call searches from nonce 0. The
+     * block is built inside the call, from a counter so each one needs a different search,
+     * rather than in per-invocation setup, whose overhead would swamp the few microseconds
+     * the low difficulties take. Building it costs little next to even one hash.
+     */
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @State(Scope.Thread)
+    public static class ProofOfWork {
+        @Param({"1", "2", "3", "4"})
+        public int difficulty;
+
+        private Timestamp timestamp;
+        private long counter;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            timestamp = new Timestamp(System.currentTimeMillis());
+        }
+
+        @Benchmark
+        public String proofOfWork() throws NoSuchAlgorithmException {
+            Block block = new Block(1, timestamp, "tx-" + counter++, difficulty);
+            block.setPreviousHash("00a0e939d359f44475b7d9bfeeff666762c9bd8d9e88d938a85cdcb5afe7a038");
+            return block.proofOfWork();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for whole-chain operations as the chain grows. Chains are mined at difficulty 1
+ * so that setup stays quick; the cost of verify and view does not depend on difficulty.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BlockChainBenchmark {
+    @Param({"10", "100", "1000"})
+    public int chainLength;
+
+    private BlockChain chain;
+
+    @Setup(Level.Trial)
+    public void buildChain() throws NoSuchAlgorithmException {
+        chain = build(chainLength);
+    }
+
+    /**
+     * Build a valid chain of the given length.
+     */
+    static BlockChain build(int length) throws NoSuchAlgorithmException {
+        BlockChain chain = new BlockChain();
+        for (int i = 0; i < length; i++)
+            chain.addBlock(new Block(i, chain.getTime(), "tx-" + i, 1));
+        return chain;
+    }
+
+    @Benchmark
+    public String isChainValid() throws NoSuchAlgorithmException {
+        return chain.isChainValid();
+    }
+
+    @Benchmark
+    public String chainToString() {
+        return chain.toString();
+    }
+
+    /**
+     * Repair after corrupting the middle block, so half the chain needs new proof of work.
+     * The chain is rebuilt for every call because repair leaves it valid. Each single-shot
+     * iteration is one call, so per-iteration setup gives every call a fresh chain without
+     * the per-invocation setup JMH warns against.
+     */
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @State(Scope.Thread)
+    public static class Repair {
+        @Param({"10", "100", "1000"})
+        public int chainLength;
+
+        private BlockChain chain;
+
+        @Setup(Level.Iteration)
+        public void corruptChain() throws NoSuchAlgorithmException {
+            chain = build(chainLength);
+            chain.setBlockData(chainLength / 2, "tampered");
+        }
+
+        @Benchmark
+        @BenchmarkMode(Mode.SingleShotTime)
+        @Warmup(iterations = 10)
+        @Measurement(iterations = 20)
+        public void repairChain() throws NoSuchAlgorithmException {
+            chain.repairChain();
+        }
+    }
+}
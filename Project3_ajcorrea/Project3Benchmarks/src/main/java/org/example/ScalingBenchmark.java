@@ -0,0 +1,258 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Headless version of the difficulty-scaling experiment recorded in the Task 0
+ * BlockChain.main Javadoc: for each difficulty, add blocks, verify, corrupt one block and
+ * repair, repeated over several trials. Options are given as key=value arguments:
+ * <pre>
+ * difficulties=2,3,4,5   difficulties to run
+ * lengths=3              blocks added after the genesis block (comma separated for several)
+ * trials=10              measured trials per configuration
+ * warmup=2               unrecorded trials run first to warm up the JIT
+ * seed=42                seed for transactions, timestamps and the corrupted block
+ * format=csv             csv or json
+ * out=-                  output file, or - for stdout
+ * </pre>
+ * Timestamps are derived from the seed instead of the clock, so the same seed mines the same
+ * nonces on any machine. The number of hashes tried is reported next to the times, which
+ * separates the work done from the speed of the hardware.
+ */
+public class ScalingBenchmark {
+    // Two-sided 95% Student t quantiles for 1..30 degrees of freedom
+    private static final double[] T_95 = {
+            12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+            2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+            2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+
+    private static final String[] OPS = {"add", "verify", "repair"};
+
+    /**
+     * Run the experiment and write the summary.
+     *
+     * @param args key=value options, see the class documentation.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     * @throws IOException              If the output file cannot be written.
+     */
+    public static void main(String[] args) throws NoSuchAlgorithmException, IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int[] difficulties = parseList(options.getOrDefault("difficulties", "2,3,4,5"));
+        int[] lengths = parseList(options.getOrDefault("lengths", "3"));
+        int trials = Integer.parseInt(options.getOrDefault("trials", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String format = options.getOrDefault("format", "csv");
+        String out = options.getOrDefault("out", "-");
+
+        List<Summary> summaries = new ArrayList<>();
+        for (int length : lengths) {
+            for (int difficulty : difficulties) {
+                Summary[] byOp = new Summary[OPS.length];
+                for (int op = 0; op < OPS.length; op++)
+                    byOp[op] = new Summary(OPS[op], difficulty, length);
+                for (int trial = 0; trial < warmup + trials; trial++) {
+                    // Every measured trial gets its own seed, so trials differ but runs repeat
+                    double[][] result = runTrial(difficulty, length, seed + trial);
+                    if (trial < warmup)
+                        continue;
+                    for (int op = 0; op < OPS.length; op++)
+                        byOp[op].add(result[op][0], result[op][1]);
+                }
+                for (Summary summary : byOp) {
+                    summaries.add(summary);
+                    System.err.println(summary.op + " difficulty " + difficulty + " length " + length +
+                            ": " + String.format("%.3f", summary.mean()) + " ms");
+                }
+            }
+        }
+
+        PrintStream printStream = out.equals("-") ? System.out
+                : new PrintStream(out, StandardCharsets.UTF_8);
+        try {
+            printStream.print(format.equals("json") ? toJson(summaries, options) : toCsv(summaries));
+        } finally {
+            if (printStream != System.out)
+                printStream.close();
+        }
+    }
+
+    /**
+     * Build a chain, verify it, corrupt one block and repair it.
+     *
+     * @param difficulty Difficulty of every block, genesis included.
+     * @param length     Number of blocks added after genesis.
+     * @param seed       Seed for this trial.
+     * @return For add (per block), verify and repair: elapsed milliseconds and hashes tried.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    static double[][] runTrial(int difficulty, int length, long seed) throws NoSuchAlgorithmException {
+        Random random = new Random(seed);
+        long baseTime = 1_600_000_000_000L + (random.nextLong() & 0xffffffffL);
+        BlockChain chain = new BlockChain();
+        chain.addBlock(new Block(0, new Timestamp(baseTime), "Genesis", difficulty));
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= length; i++) {
+            String transaction = "tx-" + Long.toHexString(random.nextLong());
+            chain.addBlock(new Block(i, new Timestamp(baseTime + i), transaction, difficulty));
+        }
+        double addMillis = (System.nanoTime() - start) / 1e6 / length;
+        double addHashes = (hashesTried(chain) - hashesTried(chain.getBlock(0))) / (double) length;
+
+        long hashesComputed = Metrics.hashesComputed.sum();
+        start = System.nanoTime();
+        String valid = chain.isChainValid();
+        double verifyMillis = (System.nanoTime() - start) / 1e6;
+        // Counted rather than derived, so the figure follows however verification hashes
+        double verifyHashes = Metrics.hashesComputed.sum() - hashesComputed;
+        if (!valid.equals("TRUE"))
+            throw new IllegalStateException("Freshly built chain failed verification: " + valid);
+
+        chain.setBlockData(1 + random.nextInt(length), "tampered");
+        double hashesBefore = hashesTried(chain);
+        start = System.nanoTime();
+        chain.repairChain();
+        double repairMillis = (System.nanoTime() - start) / 1e6;
+        double repairHashes = hashesTried(chain) - hashesBefore;
+        if (!chain.isChainValid().equals("TRUE"))
+            throw new IllegalStateException("Repaired chain failed verification");
+
+        return new double[][]{
+                {addMillis, addHashes},
+                {verifyMillis, verifyHashes},
+                {repairMillis, repairHashes}};
+    }
+
+    /**
+     * Total hashes tried by proof of work over the chain, i.e. the sum of nonces plus one per block.
+     */
+    private static double hashesTried(BlockChain chain) {
+        double total = 0;
+        for (int i = 0; i < chain.getChainSize(); i++)
+            total += hashesTried(chain.getBlock(i));
+        return total;
+    }
+
+    private static double hashesTried(Block block) {
+        return block.getNonce().doubleValue() + 1;
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    private static String toCsv(List<Summary> summaries) {
+        StringBuilder csv = new StringBuilder(
+                "op,difficulty,length,trials,mean_ms,stddev_ms,ci95_low_ms,ci95_high_ms,mean_hashes\n");
+        for (Summary s : summaries) {
+            csv.append(String.format("%s,%d,%d,%d,%.4f,%.4f,%.4f,%.4f,%.1f%n", s.op, s.difficulty, s.length,
+                    s.millis.size(), s.mean(), s.stddev(), s.mean() - s.ci95(), s.mean() + s.ci95(),
+                    s.meanHashes()));
+        }
+        return csv.toString();
+    }
+
+    private static String toJson(List<Summary> summaries, Map<String, String> options) {
+        JsonObject root = new JsonObject();
+        JsonObject config = new JsonObject();
+        options.forEach(config::addProperty);
+        root.add("options", config);
+        root.addProperty("javaVersion", System.getProperty("java.version"));
+        root.addProperty("processors", Runtime.getRuntime().availableProcessors());
+        JsonArray results = new JsonArray();
+        for (Summary s : summaries) {
+            JsonObject result = new JsonObject();
+            result.addProperty("op", s.op);
+            result.addProperty("difficulty", s.difficulty);
+            result.addProperty("length", s.length);
+            result.addProperty("trials", s.millis.size());
+            result.addProperty("meanMillis", s.mean());
+            result.addProperty("stddevMillis", s.stddev());
+            result.addProperty("ci95LowMillis", s.mean() - s.ci95());
+            result.addProperty("ci95HighMillis", s.mean() + s.ci95());
+            result.addProperty("meanHashes", s.meanHashes());
+            results.add(result);
+        }
+        root.add("results", results);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(root) + "\n";
+    }
+
+    /**
+     * Timings of one op across the trials of one configuration.
+     */
+    private static class Summary {
+        final String op;
+        final int difficulty;
+        final int length;
+        final List<Double> millis = new ArrayList<>();
+        double totalHashes;
+
+        Summary(String op, int difficulty, int length) {
+            this.op = op;
+            this.difficulty = difficulty;
+            this.length = length;
+        }
+
+        void add(double elapsedMillis, double hashes) {
+            millis.add(elapsedMillis);
+            totalHashes += hashes;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double m : millis)
+                sum += m;
+            return millis.isEmpty() ? 0 : sum / millis.size();
+        }
+
+        double stddev() {
+            if (millis.size() < 2)
+                return 0;
+            double mean = mean();
+            double sum = 0;
+            for (double m : millis)
+                sum += (m - mean) * (m - mean);
+            return Math.sqrt(sum / (millis.size() - 1));
+        }
+
+        // Half-width of the 95% confidence interval of the mean
+        double ci95() {
+            int n = millis.size();
+            if (n < 2)
+                return 0;
+            double t = n - 1 <= T_95.length ? T_95[n - 2] : 1.96;
+            return t * stddev() / Math.sqrt(n);
+        }
+
+        double meanHashes() {
+            return millis.isEmpty() ? 0 : totalHashes / millis.size();
+        }
+    }
+}
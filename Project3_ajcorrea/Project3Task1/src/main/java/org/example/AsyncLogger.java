@@ -0,0 +1,182 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Console logger that never blocks the caller. Messages go into a bounded queue that a
+ * background thread drains to the console; when the queue is full the message is dropped and
+ * counted instead. Responses can be sampled per op and long payloads are truncated before
+ * they are queued.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Dlog.level=INFO        DEBUG, INFO, WARN or ERROR
+ * -Dlog.queue=8192        messages that may wait for the console
+ * -Dlog.maxPayload=1024   characters of a payload kept in a message
+ * -Dlog.sample.N=1        log one in N responses of op N (e.g. -Dlog.sample.0=100)
+ * </pre>
+ */
+public class AsyncLogger {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private final Level level;
+    private final int maxPayloadChars;
+    private final BlockingQueue<String> queue;
+    private final PrintStream sink;
+    private final LongAdder dropped = new LongAdder();
+    // Log one in sampleEvery[op] responses; counters track how many were seen
+    private final int[] sampleEvery = new int[Metrics.OPS];
+    private final AtomicLong[] sampleCounters = new AtomicLong[Metrics.OPS];
+
+    /**
+     * Constructor for a logger writing to the given stream.
+     *
+     * @param level           The lowest level that is logged.
+     * @param capacity        Number of messages that may wait for the sink.
+     * @param maxPayloadChars Characters of a payload kept by truncate.
+     * @param sink            Where messages are written.
+     */
+    public AsyncLogger(Level level, int capacity, int maxPayloadChars, PrintStream sink) {
+        this.level = level;
+        this.maxPayloadChars = maxPayloadChars;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.sink = sink;
+        for (int i = 0; i < Metrics.OPS; i++) {
+            sampleEvery[i] = 1;
+            sampleCounters[i] = new AtomicLong();
+        }
+        Thread writer = new Thread(this::drain, "async-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Build a console logger from the log.* system properties.
+     *
+     * @return The configured logger.
+     */
+    public static AsyncLogger fromSystemProperties() {
+        AsyncLogger logger = new AsyncLogger(
+                Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase()),
+                Integer.getInteger("log.queue", 8192),
+                Integer.getInteger("log.maxPayload", 1024),
+                System.out);
+        for (int op = 0; op < Metrics.OPS; op++)
+            logger.setSampling(op, Integer.getInteger("log.sample." + op, 1));
+        return logger;
+    }
+
+    /**
+     * Log only one in every {@code every} responses of an op.
+     *
+     * @param op    The request op.
+     * @param every Sampling interval; 1 logs every response, 0 or less logs none.
+     */
+    public void setSampling(int op, int every) {
+        sampleEvery[op] = every;
+    }
+
+    /**
+     * Decide whether this response of an op should be logged.
+     *
+     * @param op The request op.
+     * @return True for one in every N calls for the op, as set by setSampling.
+     */
+    public boolean sample(int op) {
+        if (op < 0 || op >= Metrics.OPS)
+            return true;
+        int every = sampleEvery[op];
+        if (every <= 0)
+            return false;
+        return every == 1 || sampleCounters[op].getAndIncrement() % every == 0;
+    }
+
+    /**
+     * Check whether messages of a level are logged.
+     *
+     * @param messageLevel The level to check.
+     * @return True if such messages are logged.
+     */
+    public boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Shorten a payload to the configured maximum length.
+     *
+     * @param payload The payload text.
+     * @return The payload, cut off with a note of how much was left out if it was too long.
+     */
+    public String truncate(String payload) {
+        if (payload.length() <= maxPayloadChars)
+            return payload;
+        return payload.substring(0, maxPayloadChars) + "... (" + (payload.length() - maxPayloadChars) +
+                " more characters)";
+    }
+
+    /**
+     * Queue a message for the console without blocking. It is dropped if the queue is full.
+     *
+     * @param messageLevel The message level.
+     * @param message      The message.
+     */
+    public void log(Level messageLevel, String message) {
+        if (isEnabled(messageLevel) && !queue.offer(message))
+            dropped.increment();
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    /**
+     * Get the number of messages dropped because the queue was full.
+     *
+     * @return The number of dropped messages.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Write queued messages to the sink in batches, noting any that were dropped.
+     */
+    private void drain() {
+        List<String> batch = new ArrayList<>();
+        long reportedDrops = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            long drops = dropped.sum();
+            if (drops > reportedDrops) {
+                sink.println("[logger dropped " + (drops - reportedDrops) + " messages]");
+                reportedDrops = drops;
+            }
+            for (String message : batch)
+                sink.println(message);
+            sink.flush();
+            batch.clear();
+        }
+    }
+}
@@ -9,20 +9,35 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Block {
+    // Hashes a mining thread tries between progress updates; a power of two
+    private static final int PROGRESS_BATCH = 1024;
+    // Most leading zero bits a block may ask for; mining even this many is far beyond any
+    // machine, but it stops a request from holding the chain lock for good
+    public static final int MAX_DIFFICULTY_BITS = Integer.getInteger("block.maxDifficultyBits", 64);
+
     // Stores the position of the block on the chain
     private int index;
     // Stores the timestamp of the instant when the block was created
     private Timestamp timestamp;
     // Stores single transaction details of the block
     private String data;
-    // Stores the SHA256 hash of the block's parent
-    private String previousHash;
+    // Stores the SHA256 hash of the block's parent; null for a block without one (genesis)
+    private Hash previousHash;
     // Value determined by POW (Proof of Work) routine
     private BigInteger nonce;
     // The minimum number of leftmost hex digits needed by a proper hash
     private int difficulty;
+    // The minimum number of leading zero bits needed by a proper hash; 4 * difficulty unless
+    // set with finer granularity through setDifficultyBits
+    private int difficultyBits;
 
     /**
      * Constructor for creating a Block object.
@@ -37,9 +52,23 @@ public class Block {
         this.timestamp = timestamp;
         this.data = data;
         this.difficulty = difficulty;
+        this.difficultyBits = 4 * difficulty;
         this.nonce = BigInteger.ZERO;
     }
 
+    /**
+     * Make a copy of the block that can be changed without affecting this one.
+     *
+     * @return A new Block with the same attributes.
+     */
+    public Block copy() {
+        Block copy = new Block(index, timestamp, data, difficulty);
+        copy.difficultyBits = difficultyBits;
+        copy.previousHash = previousHash;
+        copy.nonce = nonce;
+        return copy;
+    }
+
     /**
      * Calculate and return the SHA-256 hash of the block.
      *
@@ -47,12 +76,47 @@ public class Block {
      * @throws NoSuchAlgorithmException If SHA-256 hashing algorithm is not available.
      */
     public String calculateHash() throws NoSuchAlgorithmException {
-        String parentString = String.valueOf(this.index) + this.timestamp + this.data +
-                this.previousHash + this.nonce + this.difficulty;
+        return computeHash().toHex();
+    }
+
+    /**
+     * Calculate the SHA-256 hash of the block as a Hash value, without hex encoding it.
+     *
+     * @return The calculated SHA-256 hash.
+     * @throws NoSuchAlgorithmException If SHA-256 hashing algorithm is not available.
+     */
+    public Hash computeHash() throws NoSuchAlgorithmException {
+        Hash hash = computeHash(this.nonce, hashPrefix());
+        Metrics.hashesComputed.increment();
+        return hash;
+    }
+
+    /**
+     * The part of the hashed string that does not depend on the nonce: index, timestamp, data
+     * and the parent's hash in hex.
+     */
+    private String hashPrefix() {
+        return String.valueOf(this.index) + this.timestamp + this.data + getPreviousHash();
+    }
+
+    /**
+     * Calculate the SHA-256 hash the block would have with the given nonce. Not counted in
+     * Metrics.hashesComputed; callers count, so mining can do it a batch at a time.
+     *
+     * @param nonce  The nonce to hash with.
+     * @param prefix The block's hashPrefix.
+     * @return The calculated SHA-256 hash.
+     * @throws NoSuchAlgorithmException If SHA-256 hashing algorithm is not available.
+     */
+    Hash computeHash(BigInteger nonce, String prefix) throws NoSuchAlgorithmException {
+        String parentString = prefix + nonce + this.difficulty;
+        // Bit targets between whole hex digits are part of what the hash commits to
+        if (this.difficultyBits % 4 != 0)
+            parentString = parentString + "/" + this.difficultyBits;
         MessageDigest md = MessageDigest.getInstance("SHA-256");
         byte[] encodedHash = md.digest(
                 parentString.getBytes(StandardCharsets.UTF_8));
-        return BlockHelper.bytesToHex(encodedHash);
+        return Hash.of(encodedHash);
     }
 
     /**
@@ -64,6 +128,15 @@ public class Block {
         return nonce;
     }
 
+    /**
+     * Set the nonce, for a block that was mined elsewhere.
+     *
+     * @param nonce The nonce value.
+     */
+    void setNonce(BigInteger nonce) {
+        this.nonce = nonce;
+    }
+
     /**
      * Get the difficulty level for proof of work.
      *
@@ -77,9 +150,66 @@ public class Block {
      * Simple setter method
      *
      * @param difficulty - determines how much work is required to produce a proper hash
+     * @throws IllegalArgumentException If the difficulty is negative or above MAX_DIFFICULTY_BITS.
      */
     public void setDifficulty(int difficulty) {
+        checkDifficultyBits(4L * difficulty);
         this.difficulty = difficulty;
+        this.difficultyBits = 4 * difficulty;
+    }
+
+    /**
+     * Get the number of leading zero bits a proper hash needs.
+     *
+     * @return The difficulty in bits.
+     */
+    public int getDifficultyBits() {
+        return difficultyBits;
+    }
+
+    /**
+     * Set the difficulty in leading zero bits, which allows steps finer than one hex digit.
+     * The hex difficulty becomes the number of whole hex digits covered.
+     *
+     * @param difficultyBits The number of leading zero bits a proper hash needs.
+     * @throws IllegalArgumentException If the difficulty is negative or above MAX_DIFFICULTY_BITS.
+     */
+    public void setDifficultyBits(int difficultyBits) {
+        checkDifficultyBits(difficultyBits);
+        this.difficultyBits = difficultyBits;
+        this.difficulty = difficultyBits / 4;
+    }
+
+    /**
+     * Check that a difficulty in bits can be asked of a block.
+     *
+     * @param difficultyBits The number of leading zero bits.
+     * @throws IllegalArgumentException If it is negative or above MAX_DIFFICULTY_BITS.
+     */
+    static void checkDifficultyBits(long difficultyBits) {
+        if (difficultyBits < 0 || difficultyBits > MAX_DIFFICULTY_BITS)
+            throw new IllegalArgumentException("Difficulty must be between 0 and " + MAX_DIFFICULTY_BITS +
+                    " bits, not " + difficultyBits);
+    }
+
+    /**
+     * Check whether a hash meets this block's difficulty.
+     *
+     * @param hexHash The hash as a hex string.
+     * @return True if the hash starts with enough zero bits.
+     */
+    public boolean meetsDifficulty(String hexHash) {
+        return BlockHelper.hasLeadingZeroBits(hexHash, this.difficultyBits);
+    }
+
+    /**
+     * Check whether a hash meets this block's difficulty.
+     *
+     * @param hash The hash.
+     * @return True if the hash starts with enough zero bits.
+     */
+    public boolean meetsDifficulty(Hash hash) {
+        return hash.hasLeadingZeroBits(this.difficultyBits);
     }
 
     /**
@@ -112,9 +242,18 @@ public class Block {
     /**
      * Get the SHA-256 hash of the block's parent.
      *
-     * @return The SHA-256 hash of the parent block.
+     * @return The SHA-256 hash of the parent block in hex, or "" if it has none.
      */
     public String getPreviousHash() {
+        return previousHash == null ? "" : previousHash.toHex();
+    }
+
+    /**
+     * Get the SHA-256 hash of the block's parent as a Hash value.
+     *
+     * @return The hash of the parent block, or null if it has none.
+     */
+    public Hash getPreviousHashValue() {
         return previousHash;
     }
 
@@ -148,9 +287,19 @@ public class Block {
     /**
      * Set the SHA-256 hash of the block's parent.
      *
-     * @param previousHash The new parent block's hash.
+     * @param previousHash The new parent block's hash in hex, or "" for none.
+     * @throws IllegalArgumentException If the hash is not 64 lowercase hex digits.
      */
     public void setPreviousHash(String previousHash) {
+        this.previousHash = previousHash.isEmpty() ? null : Hash.fromHex(previousHash);
+    }
+
+    /**
+     * Set the SHA-256 hash of the block's parent.
+     *
+     * @param previousHash The new parent block's hash, or null for none.
+     */
+    public void setPreviousHash(Hash previousHash) {
         this.previousHash = previousHash;
     }
 
@@ -161,33 +310,173 @@ public class Block {
      */
     @Override
     public String toString() {
+        return toJson().toString();
+    }
+
+    /**
+     * Convert the block's attributes to a JSON object, as written by toString.
+     *
+     * @return A JSON object holding the block's attributes.
+     */
+    public JsonObject toJson() {
         JsonObject jsonObject = new JsonObject();
         jsonObject.addProperty("index", index);
         jsonObject.addProperty("timestamp", String.valueOf(timestamp));
         jsonObject.addProperty("tx", data);
-        jsonObject.addProperty("previousHash", previousHash);
+        jsonObject.addProperty("previousHash", getPreviousHash());
         jsonObject.addProperty("nonce", nonce);
         jsonObject.addProperty("difficulty", difficulty);
-        return jsonObject.toString();
+        if (difficultyBits % 4 != 0)
+            jsonObject.addProperty("difficultyBits", difficultyBits);
+        return jsonObject;
+    }
+
+    /**
+     * Describe the block by its hash, link and difficulty without its transaction or timestamp,
+     * so a syncing node can check proof of work and links before downloading the block.
+     *
+     * @return A JSON object holding the block header.
+     * @throws NoSuchAlgorithmException If SHA-256 hashing algorithm is not available.
+     */
+    public JsonObject toHeaderJson() throws NoSuchAlgorithmException {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("index", index);
+        jsonObject.addProperty("hash", calculateHash());
+        jsonObject.addProperty("previousHash", getPreviousHash());
+        jsonObject.addProperty("difficulty", difficulty);
+        if (difficultyBits % 4 != 0)
+            jsonObject.addProperty("difficultyBits", difficultyBits);
+        return jsonObject;
+    }
+
+    /**
+     * Rebuild a block from the JSON written by toJson, nonce included, so it hashes exactly as
+     * it did where it was mined.
+     *
+     * @param json The block's JSON object.
+     * @return The block.
+     */
+    public static Block fromJson(JsonObject json) {
+        Block block = new Block(json.get("index").getAsInt(),
+                Timestamp.valueOf(json.get("timestamp").getAsString()),
+                json.get("tx").getAsString(), json.get("difficulty").getAsInt());
+        if (json.has("difficultyBits"))
+            block.setDifficultyBits(json.get("difficultyBits").getAsInt());
+        block.setPreviousHash(json.get("previousHash").getAsString());
+        block.setNonce(json.get("nonce").getAsBigInteger());
+        return block;
     }
 
     /**
      * Perform Proof of Work (POW) to find a hash that meets the required difficulty level.
+     * The search starts at the current nonce and uses up to Miner.getThreads() threads; it
+     * always settles on the smallest valid nonce, so the result does not depend on the
+     * thread count.
      *
      * @return The valid SHA-256 hash after POW.
      * @throws NoSuchAlgorithmException If SHA-256 hashing algorithm is not available.
+     * @throws CancellationException    If the job was cancelled through Miner.
      */
     public String proofOfWork() throws NoSuchAlgorithmException {
 
-        String hexHash = calculateHash();
-        String matchString = "";
-        for (int i = 0; i < this.difficulty; i++) {
-            matchString = matchString + "0";
+        long start = System.nanoTime();
+        Miner.Job job = Miner.start(this.index, this.difficulty);
+        int threads = Miner.getThreads();
+        BlockchainEvents.ProofOfWork event = new BlockchainEvents.ProofOfWork();
+        event.begin();
+        try {
+            // Only the nonce changes between attempts, so the rest of the hashed string is built once
+            String prefix = hashPrefix();
+            BigInteger found;
+            if (threads > 1)
+                found = parallelSearch(threads, job, prefix);
+            else
+                found = search(this.nonce, BigInteger.ONE, null, job, prefix);
+            if (job.cancelled || found == null)
+                throw new CancellationException("Mining of block " + this.index + " was cancelled");
+            this.nonce = found;
+            return calculateHash();
+        } finally {
+            Miner.finish(job);
+            Metrics.recordMining(job.getHashesTried(), System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.blockIndex = this.index;
+                event.difficulty = this.difficulty;
+                event.noncesTried = job.getHashesTried();
+                event.threads = threads;
+                event.cancelled = job.cancelled;
+                event.commit();
+            }
         }
-        while(!hexHash.substring(0, this.difficulty).equalsIgnoreCase(matchString)){
-            this.nonce = this.nonce.add(BigInteger.ONE);
-            hexHash = calculateHash();
+    }
+
+    /**
+     * Split the nonce space between threads: thread k tries nonce + k, nonce + k + threads, ...
+     *
+     * @return The smallest valid nonce, or null if the job was cancelled.
+     */
+    private BigInteger parallelSearch(int threads, Miner.Job job, String prefix)
+            throws NoSuchAlgorithmException {
+        BigInteger first = this.nonce;
+        BigInteger step = BigInteger.valueOf(threads);
+        // Smallest valid nonce found so far; each thread stops once it has passed it
+        AtomicReference<BigInteger> best = new AtomicReference<>();
+        List<Future<BigInteger>> helpers = new ArrayList<>();
+        for (int k = 1; k < threads; k++) {
+            BigInteger offset = first.add(BigInteger.valueOf(k));
+            helpers.add(Miner.workers.submit(() -> search(offset, step, best, job, prefix)));
+        }
+        search(first, step, best, job, prefix);
+        for (Future<BigInteger> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                job.cancelled = true;
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                job.cancelled = true;
+                if (e.getCause() instanceof NoSuchAlgorithmException)
+                    throw (NoSuchAlgorithmException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return best.get();
+    }
+
+    /**
+     * Try nonces start, start + step, ... until one gives a hash that meets the difficulty.
+     *
+     * @param best Shared smallest valid nonce for a parallel search, or null when searching alone.
+     * @return The first valid nonce this search found, or null if it stopped early.
+     */
+    private BigInteger search(BigInteger start, BigInteger step, AtomicReference<BigInteger> best,
+                              Miner.Job job, String prefix) throws NoSuchAlgorithmException {
+        long attempts = 0;
+        try {
+            for (BigInteger candidate = start; !job.cancelled; candidate = candidate.add(step)) {
+                if (best != null) {
+                    BigInteger found = best.get();
+                    if (found != null && candidate.compareTo(found) > 0)
+                        return null;
+                }
+                Hash hash = computeHash(candidate, prefix);
+                attempts++;
+                if (meetsDifficulty(hash)) {
+                    if (best != null)
+                        best.accumulateAndGet(candidate, (a, b) -> a == null ? b : a.min(b));
+                    return candidate;
+                }
+                // Publish progress in batches so the shared counters stay off the hot path
+                if ((attempts & (PROGRESS_BATCH - 1)) == 0) {
+                    job.hashesTried.add(PROGRESS_BATCH);
+                    Metrics.hashesComputed.add(PROGRESS_BATCH);
+                }
+            }
+            return null;
+        } finally {
+            job.hashesTried.add(attempts & (PROGRESS_BATCH - 1));
+            Metrics.hashesComputed.add(attempts & (PROGRESS_BATCH - 1));
         }
-        return hexHash;
     }
 }
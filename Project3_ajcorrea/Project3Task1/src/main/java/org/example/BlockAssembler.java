@@ -0,0 +1,147 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonArray;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the mempool into blocks on a background thread at a fixed cadence. Each block holds
+ * up to a maximum number of transactions as a JSON array in its data. Proof of work runs
+ * without the chain lock; the block is appended only if the chain has not moved on meanwhile,
+ * and is mined again on the new tip if it has. A block that is not appended, because its proof
+ * of work was cancelled or failed, leaves its transactions in the mempool.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Dmempool.capacity=100000             transactions that may wait at once
+ * -Dmempool.intervalMillis=1000         time between blocks
+ * -Dmempool.maxBlockTransactions=500    transactions in one block
+ * -Dmempool.difficulty=2                difficulty of assembled blocks, unless retargeting
+ * </pre>
+ */
+public class BlockAssembler {
+    private final BlockChain chain;
+    private final Mempool mempool;
+    private final int maxTransactions;
+    private final int difficulty;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "block-assembler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor for an assembler of the given chain.
+     *
+     * @param chain           The chain blocks are appended to.
+     * @param mempool         The transactions to put into blocks.
+     * @param maxTransactions Transactions in one block.
+     * @param difficulty      Difficulty of assembled blocks.
+     */
+    public BlockAssembler(BlockChain chain, Mempool mempool, int maxTransactions, int difficulty) {
+        this.chain = chain;
+        this.mempool = mempool;
+        this.maxTransactions = maxTransactions;
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * Build an assembler from the mempool.* system properties and start it.
+     *
+     * @param chain   The chain blocks are appended to.
+     * @param mempool The transactions to put into blocks.
+     * @return The running assembler.
+     */
+    public static BlockAssembler startFromSystemProperties(BlockChain chain, Mempool mempool) {
+        BlockAssembler assembler = new BlockAssembler(chain, mempool,
+                Integer.getInteger("mempool.maxBlockTransactions", 500),
+                Integer.getInteger("mempool.difficulty", 2));
+        long interval = Long.getLong("mempool.intervalMillis", 1000);
+        assembler.scheduler.scheduleWithFixedDelay(assembler::assembleQuietly, interval, interval,
+                TimeUnit.MILLISECONDS);
+        return assembler;
+    }
+
+    /**
+     * Put the next batch of pending transactions into a block, if there are any.
+     *
+     * @return True if a block was appended.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    public boolean assemble() throws NoSuchAlgorithmException {
+        List<Mempool.Entry> batch = mempool.take(maxTransactions);
+        if (batch.isEmpty())
+            return false;
+        JsonArray transactions = new JsonArray();
+        for (Mempool.Entry entry : batch)
+            transactions.add(entry.transaction);
+        Block block;
+        try {
+            block = mineOnTip(transactions);
+        } catch (CancellationException e) {
+            mempool.putBack(batch);
+            return false;
+        } catch (NoSuchAlgorithmException | RuntimeException e) {
+            // Whatever stopped the block, its transactions wait for the next one
+            mempool.putBack(batch);
+            throw e;
+        }
+        // The block is in the chain, and its log record names the batch as committed
+        mempool.committed(batch);
+        Metrics.blocksMined.increment();
+        if (EchoServerTCP.replicator != null)
+            EchoServerTCP.replicator.announce(block);
+        EchoServerTCP.log.info("Assembled block " + block.getIndex() + " with " + batch.size() +
+                " transactions");
+        return true;
+    }
+
+    /**
+     * Run one assembly for the scheduler. Failures are logged rather than thrown, as a thrown
+     * exception would stop every later run.
+     */
+    private void assembleQuietly() {
+        try {
+            assemble();
+        } catch (NoSuchAlgorithmException | RuntimeException e) {
+            EchoServerTCP.log.warn("Block assembly failed: " + e);
+        }
+    }
+
+    /**
+     * Mine a block holding the transactions on the current tip and append it, starting over
+     * if the tip moves first. Once this returns the block is in the chain, so nothing may fail
+     * between the two.
+     */
+    private Block mineOnTip(JsonArray transactions) throws NoSuchAlgorithmException {
+        String data = transactions.toString();
+        DifficultyRetargeter retargeter = EchoServerTCP.retargeter;
+        while (true) {
+            Block block;
+            synchronized (chain) {
+                block = new Block(chain.getChainSize(), chain.getTime(), data, difficulty);
+                block.setPreviousHash(chain.getChainHashValue());
+            }
+            if (retargeter != null)
+                block.setDifficultyBits(retargeter.nextDifficultyBits(
+                        (long) chain.getHashesPerSecond() * Miner.getThreads()));
+            long miningStart = System.nanoTime();
+            block.proofOfWork();
+            if (retargeter != null)
+                retargeter.record(block.getNonce().longValue() + 1, System.nanoTime() - miningStart);
+            synchronized (chain) {
+                if ("TRUE".equals(chain.appendMinedBlock(block, transactions)))
+                    return block;
+            }
+            // Another block was appended while this one was mined
+        }
+    }
+}
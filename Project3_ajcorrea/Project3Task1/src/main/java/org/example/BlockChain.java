@@ -3,39 +3,123 @@
 
 package org.example;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
+import com.google.gson.JsonObject;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
-public class BlockChain {
+public class BlockChain implements ChainView {
 
     // Private instance variables
-    private List<Block> blockList;
-    private String chainHash;
-    private int hashesPerSecond;
-    Gson gson = new Gson();
+    // Blocks in chain order; kept on or off the heap depending on the store
+    private final BlockStore blocks;
+    // Hash of the last block; null while the chain is empty. This and the other running values
+    // are only written under the chain lock, but volatile so monitoring can read them without it
+    private volatile Hash chainHash;
+    private volatile int hashesPerSecond;
+    private volatile long hashesPerSecondAllCores;
+    // Running totals over blocks, kept up to date by every method that changes a block
+    private volatile int totalDifficulty;
+    private volatile double totalExpectedHashes;
+    // Incremented on every change to the chain, so derived data can be cached per version
+    private long version;
+    // Lowest block changed in place since the export last caught up
+    private int lowestChanged = Integer.MAX_VALUE;
+    // Records every change when -Dwal.file is set, otherwise null
+    private WriteAheadLog wal;
+    // Blocks as of the latest change, sharing chunks with published snapshots; null unless
+    // snapshots are kept
+    private final ChainSnapshot.Builder working;
+    // Latest published version of the chain, for readers that do not take the chain lock
+    private volatile ChainSnapshot snapshot;
 
     /**
      * Constructor to initialize a new blockchain.
      */
     public BlockChain() {
-        this.blockList = new ArrayList<>();
-        this.chainHash = "";
+        this(BlockStore.fromSystemProperties());
+    }
+
+    /**
+     * Constructor to initialize a new blockchain kept in the given store. Snapshots are kept
+     * as -Dchain.snapshots says, by default only with the heap store.
+     *
+     * @param blocks An empty block store.
+     */
+    public BlockChain(BlockStore blocks) {
+        this(blocks, Boolean.parseBoolean(System.getProperty("chain.snapshots",
+                String.valueOf(blocks instanceof HeapBlockStore))));
+    }
+
+    /**
+     * Constructor to initialize a new blockchain kept in the given store.
+     *
+     * @param blocks    An empty block store.
+     * @param snapshots Whether to publish a ChainSnapshot after every change.
+     */
+    public BlockChain(BlockStore blocks, boolean snapshots) {
+        this.blocks = blocks;
         this.hashesPerSecond = 0;
+        this.working = snapshots ? new ChainSnapshot.Builder() : null;
+        publish();
+    }
+
+    /**
+     * Get the latest published snapshot of the chain. It can be read without the chain lock,
+     * and stays the same however the chain changes afterwards.
+     *
+     * @return The snapshot, or null if snapshots are not kept.
+     */
+    public ChainSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Get a consistent view of the chain to read from: the latest snapshot if snapshots are
+     * kept, which needs no lock, otherwise the chain itself, which needs the chain lock.
+     *
+     * @return The view.
+     */
+    public ChainView getView() {
+        ChainSnapshot current = snapshot;
+        return current == null ? this : current;
+    }
+
+    /**
+     * Make the current state of the chain the latest snapshot, if snapshots are kept. Called
+     * once a change is complete, so readers never see one half made.
+     */
+    private void publish() {
+        if (working != null)
+            snapshot = working.build(chainHash, totalDifficulty, totalExpectedHashes, version);
+    }
+
+    /**
+     * Record every later change to the chain in a write-ahead log.
+     *
+     * @param wal The log, already replayed into this chain.
+     */
+    public void setWriteAheadLog(WriteAheadLog wal) {
+        this.wal = wal;
     }
 
     /**
      * Get the current blockchain's hash.
      *
-     * @return The hash of the entire blockchain.
+     * @return The hash of the entire blockchain in hex, or "" while it is empty.
      */
     public String getChainHash() {
+        return chainHash == null ? "" : chainHash.toHex();
+    }
+
+    /**
+     * Get the current blockchain's hash as a Hash value.
+     *
+     * @return The hash of the last block, or null while the chain is empty.
+     */
+    public Hash getChainHashValue() {
         return chainHash;
     }
 
@@ -54,7 +138,7 @@ public class BlockChain {
      * @return The latest Block object in the chain.
      */
     public Block getLatestBlock() {
-        return blockList.get(blockList.size() - 1);
+        return blocks.get(blocks.size() - 1);
     }
 
     /**
@@ -63,37 +147,54 @@ public class BlockChain {
      * @return The number of blocks in the blockchain.
      */
     public int getChainSize() {
-        return blockList.size();
+        return blocks.size();
     }
 
     /**
-     * Compute the number of hash calculations per second.
+     * Compute the number of hash calculations per second on one thread, blocking for about a
+     * second. Servers use HashRateCalibrator instead, which measures in the background.
      *
      * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
      */
     public void computeHashesPerSecond() throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        int i = 0;
-        Timestamp startTime = getTime();
-        while (i < 2000000) {
-            // Calculate a hash 2,000,000 times with a fixed input
-            byte[] encodedHash = md.digest(
-                    "00000000".getBytes(StandardCharsets.UTF_8));
-            i += 1;
+        try {
+            long rate = HashRateCalibrator.measure(1, 1000);
+            setHashesPerSecond((int) Math.min(Integer.MAX_VALUE, rate), rate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        Timestamp endTime = getTime();
-        this.hashesPerSecond = 2000000 / (endTime.compareTo(startTime));
     }
 
     /**
      * Get the number of hash calculations per second.
      *
-     * @return The number of hash calculations per second.
+     * @return The number of hash calculations per second on one thread, 0 until measured.
      */
     public int getHashesPerSecond() {
         return this.hashesPerSecond;
     }
 
+    /**
+     * Get the number of hash calculations per second using every processor.
+     *
+     * @return The hash rate of all processors together, 0 until measured.
+     */
+    public long getHashesPerSecondAllCores() {
+        return this.hashesPerSecondAllCores;
+    }
+
+    /**
+     * Record measured hash rates. The rates are not part of the chain's version, so this needs
+     * no chain lock and never waits for mining.
+     *
+     * @param hashesPerSecond         Hash rate of one thread.
+     * @param hashesPerSecondAllCores Hash rate of all processors together.
+     */
+    public void setHashesPerSecond(int hashesPerSecond, long hashesPerSecondAllCores) {
+        this.hashesPerSecond = hashesPerSecond;
+        this.hashesPerSecondAllCores = hashesPerSecondAllCores;
+    }
+
     /**
      * Add a new block to the blockchain.
      *
@@ -101,12 +202,228 @@ public class BlockChain {
      * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
      */
     public void addBlock(Block newBlock) throws NoSuchAlgorithmException {
-        if (this.blockList.size() > 0)
-            newBlock.setPreviousHash(getChainHash());
-        else
-            newBlock.setPreviousHash("");
-        blockList.add(newBlock);
-        this.chainHash = newBlock.proofOfWork();
+        newBlock.setPreviousHash(chainHash);
+        // Mine before appending, so a cancelled proof of work leaves the chain unchanged
+        append(newBlock, Hash.fromHex(newBlock.proofOfWork()), null);
+        Metrics.blocksMined.increment();
+    }
+
+    /**
+     * Append a block that was already mined, e.g. by a peer, without mining it again. It is
+     * held to the same rules as isChainValid: it must be the next index, point at the current
+     * chain hash and have a hash that meets its own difficulty.
+     *
+     * @param block The mined block.
+     * @return "TRUE" if the block was appended; "FALSE" with an explanation otherwise.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    public String appendMinedBlock(Block block) throws NoSuchAlgorithmException {
+        return appendMinedBlock(block, null);
+    }
+
+    /**
+     * Append a block that was already mined, as appendMinedBlock(Block), recording in the
+     * write-ahead log which mempool transactions it commits, so replay takes them out of the
+     * mempool together with the block.
+     *
+     * @param block     The mined block.
+     * @param committed The mempool transactions the block holds, or null if none.
+     * @return "TRUE" if the block was appended; "FALSE" with an explanation otherwise.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    public String appendMinedBlock(Block block, JsonArray committed) throws NoSuchAlgorithmException {
+        if (block.getIndex() != blocks.size())
+            return "FALSE \n Expected node " + blocks.size() + " but got node " + block.getIndex();
+        if (!Objects.equals(chainHash, block.getPreviousHashValue()))
+            return "FALSE \n Improper previous hash";
+        Hash hash = block.computeHash();
+        if (!block.meetsDifficulty(hash))
+            return "FALSE \n Improper hash on node " + block.getIndex() + " Does not begin with " + describeTarget(block);
+        append(block, hash, committed);
+        return "TRUE";
+    }
+
+    /**
+     * Put a mined block at the end of the chain and update the running totals.
+     */
+    private void append(Block block, Hash hash, JsonArray committed) {
+        // Logged first, so a block the log cannot take is not appended
+        if (wal != null) {
+            JsonObject record = new JsonObject();
+            record.addProperty("op", "block");
+            record.add("block", block.toJson());
+            if (committed != null)
+                record.add("committed", committed);
+            wal.append(record);
+        }
+        blocks.add(block);
+        if (working != null)
+            working.add(block);
+        this.chainHash = hash;
+        this.totalDifficulty += block.getDifficulty();
+        this.totalExpectedHashes += expectedHashes(block.getDifficultyBits());
+        this.version++;
+        publish();
+    }
+
+    /**
+     * Write a changed block back to the store, and to the log if there is one. The block must
+     * be a copy, as published snapshots may still hold the original.
+     */
+    private void store(int i, Block block) {
+        if (wal != null) {
+            JsonObject record = new JsonObject();
+            record.addProperty("op", "set");
+            record.addProperty("index", i);
+            record.add("block", block.toJson());
+            wal.append(record);
+        }
+        blocks.set(i, block);
+        if (working != null)
+            working.set(i, block);
+        lowestChanged = Math.min(lowestChanged, i);
+    }
+
+    /**
+     * Get the lowest index of a block changed in place since the last call, for ChainExport.
+     *
+     * @return The block index, or Integer.MAX_VALUE if none has changed.
+     */
+    int takeLowestChanged() {
+        int changed = lowestChanged;
+        lowestChanged = Integer.MAX_VALUE;
+        return changed;
+    }
+
+    /**
+     * Apply one chain record from a write-ahead log, as WriteAheadLog.replay reads them.
+     *
+     * @param record A block, set or chainHash record.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    void replay(JsonObject record) throws NoSuchAlgorithmException {
+        switch (record.get("op").getAsString()) {
+            case "block": {
+                String result = appendMinedBlock(Block.fromJson(record.getAsJsonObject("block")));
+                if (!"TRUE".equals(result))
+                    throw new IllegalStateException("Logged block does not extend the chain: " + result);
+                break;
+            }
+            case "set": {
+                int i = record.get("index").getAsInt();
+                Block block = Block.fromJson(record.getAsJsonObject("block"));
+                int oldBits = blocks.getDifficultyBits(i);
+                this.totalDifficulty += block.getDifficulty() - oldBits / 4;
+                this.totalExpectedHashes += expectedHashes(block.getDifficultyBits()) - expectedHashes(oldBits);
+                blocks.set(i, block);
+                if (working != null)
+                    working.set(i, block);
+                lowestChanged = Math.min(lowestChanged, i);
+                this.version++;
+                publish();
+                break;
+            }
+            case "chainHash":
+                this.chainHash = Hash.fromHex(record.get("hash").getAsString());
+                this.version++;
+                publish();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown log record: " + record);
+        }
+    }
+
+    /**
+     * Get the version of the chain, which changes whenever a block is added or modified
+     * through this class.
+     *
+     * @return The chain version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Replace the data of a block, e.g. to corrupt the chain.
+     *
+     * @param i    The index of the block.
+     * @param data The new block data.
+     */
+    public void setBlockData(int i, String data) {
+        Block block = blocks.get(i).copy();
+        block.setData(data);
+        store(i, block);
+        this.version++;
+        publish();
+    }
+
+    /**
+     * Change the difficulty of a block, keeping the chain totals up to date.
+     *
+     * @param i          The index of the block.
+     * @param difficulty The new difficulty.
+     */
+    public void setBlockDifficulty(int i, int difficulty) {
+        Block block = blocks.get(i).copy();
+        int oldBits = block.getDifficultyBits();
+        block.setDifficulty(difficulty);
+        store(i, block);
+        this.totalDifficulty += block.getDifficulty() - oldBits / 4;
+        // Powers of 2 are exact in a double, so the total can be adjusted in place
+        this.totalExpectedHashes += expectedHashes(block.getDifficultyBits()) - expectedHashes(oldBits);
+        this.version++;
+        publish();
+    }
+
+    /**
+     * Change the difficulty of a block in leading zero bits, keeping the chain totals up to date.
+     *
+     * @param i              The index of the block.
+     * @param difficultyBits The new difficulty in bits.
+     */
+    public void setBlockDifficultyBits(int i, int difficultyBits) {
+        Block block = blocks.get(i).copy();
+        int oldBits = block.getDifficultyBits();
+        block.setDifficultyBits(difficultyBits);
+        store(i, block);
+        this.totalDifficulty += block.getDifficulty() - oldBits / 4;
+        this.totalExpectedHashes += expectedHashes(difficultyBits) - expectedHashes(oldBits);
+        this.version++;
+        publish();
+    }
+
+    /**
+     * Recompute the running totals from every block.
+     */
+    private void recomputeTotals() {
+        int difficulty = 0;
+        double expected = 0;
+        // Only the difficulty is needed, which columnar stores read without decoding the block
+        for (int i = 0; i < blocks.size(); i++) {
+            int bits = blocks.getDifficultyBits(i);
+            difficulty += bits / 4;
+            expected += expectedHashes(bits);
+        }
+        this.totalDifficulty = difficulty;
+        this.totalExpectedHashes = expected;
+    }
+
+    /**
+     * Expected number of hashes to mine a block: 2 ^ difficulty in bits, which is
+     * 16 (16 hex characters) ^ difficulty for whole hex digits.
+     */
+    static double expectedHashes(int difficultyBits) {
+        return Math.pow(2, difficultyBits);
+    }
+
+    /**
+     * Describe the prefix a block's hash needs, for verification messages.
+     */
+    private static String describeTarget(Block block) {
+        if (block.getDifficultyBits() % 4 == 0)
+            // Calculate prefix based on difficulty, number of leading zeroes based on the difficulty value
+            return new String(new char[block.getDifficulty()]).replace("\0", "0");
+        return block.getDifficultyBits() + " zero bits";
     }
 
     /**
@@ -116,50 +433,66 @@ public class BlockChain {
      */
     @Override
     public String toString() {
+        return toJson(this);
+    }
+
+    /**
+     * Convert a view of the chain to JSON, for toString here and in ChainSnapshot.
+     *
+     * @param chain The chain or a snapshot of it.
+     * @return JSON string representing the blockchain.
+     */
+    static String toJson(ChainView chain) {
+        BlockchainEvents.Serialize event = new BlockchainEvents.Serialize();
+        event.begin();
 
         JsonArray jsonArray = new JsonArray();
 
-        for (Block b : blockList) {
-            jsonArray.add(gson.fromJson(b.toString(), JsonElement.class));
+        for (int i = 0; i < chain.getChainSize(); i++) {
+            jsonArray.add(chain.getBlock(i).toJson());
         }
 
-        return jsonArray.toString();
+        String json = jsonArray.toString();
+        event.end();
+        if (event.shouldCommit()) {
+            event.chainLength = chain.getChainSize();
+            event.characters = json.length();
+            event.commit();
+        }
+        return json;
 
     }
 
     /**
-     * Get a specific block from the blockchain based on its index.
+     * Get a specific block from the blockchain based on its index. With the off-heap store
+     * this is a copy, and with the heap store it may be shared with snapshots, so blocks
+     * should only be changed through the setBlock methods.
      *
      * @param i The index of the block to retrieve.
      * @return The block at the specified index.
      */
     public Block getBlock(int i) {
-        return blockList.get(i);
+        return blocks.get(i);
     }
 
 
     /**
-     * Calculate the total difficulty of all blocks in the blockchain.
+     * Get the total difficulty of all blocks in the blockchain. The total is maintained as
+     * blocks are added, so this takes constant time.
      *
      * @return The total difficulty of the blockchain.
      */
     public int getTotalDifficulty() {
-        int totalDifficulty = 0;
-        for (Block block : blockList) {
-            totalDifficulty += block.getDifficulty();
-        }
         return totalDifficulty;
     }
 
     /**
-     * Calculate the total expected hash calculations required for the entire blockchain.
+     * Get the total expected hash calculations required for the entire blockchain. The total
+     * is maintained as blocks are added, so this takes constant time.
      *
      * @return The total expected hash calculations needed for the blockchain.
      */
     public double getTotalExpectedHashes() {
-        double totalExpectedHashes = 0;
-        for (Block block : blockList)
-            totalExpectedHashes += Math.pow(16, block.getDifficulty()); // 16 (16 hex characters) ^ difficulty of block
         return totalExpectedHashes;
     }
 
@@ -169,15 +502,47 @@ public class BlockChain {
      * @return "TRUE" if the blockchain is valid; "FALSE" with an explanation otherwise.
      */
     public String isChainValid() throws NoSuchAlgorithmException {
+        return verify(this);
+    }
+
+    /**
+     * Check the validity of a view of the chain, for isChainValid here and in ChainSnapshot.
+     *
+     * @param chain The chain or a snapshot of it.
+     * @return "TRUE" if the blockchain is valid; "FALSE" with an explanation otherwise.
+     */
+    static String verify(ChainView chain) throws NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        BlockchainEvents.Verify event = new BlockchainEvents.Verify();
+        event.begin();
+        String result = null;
+        try {
+            result = checkChain(chain);
+            return result;
+        } finally {
+            Metrics.verifyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            event.end();
+            if (event.shouldCommit()) {
+                event.chainLength = chain.getChainSize();
+                event.valid = "TRUE".equals(result);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Walk the chain and check every hash, as described in isChainValid.
+     *
+     * @return "TRUE" if the blockchain is valid; "FALSE" with an explanation otherwise.
+     */
+    private static String checkChain(ChainView chain) throws NoSuchAlgorithmException {
         // Chain contains only 1 block , i.e. genesis
-        if (blockList.size() == 1) {
-            Block genesisBlock = this.blockList.get(0);
-            String hash = genesisBlock.calculateHash();
-            // Calculate prefix based on difficulty, number of leading zeroes based on the difficulty value
-            String prefix = new String(new char[genesisBlock.getDifficulty()]).replace("\0", "0");
-            if (!hash.substring(0, genesisBlock.getDifficulty()).equals(prefix)) {
+        if (chain.getChainSize() == 1) {
+            Block genesisBlock = chain.getBlock(0);
+            Hash hash = genesisBlock.computeHash();
+            if (!genesisBlock.meetsDifficulty(hash)) {
                 return "FALSE \n Improper hash on genesis node";
-            } else if (!chainHash.equals(hash)) {
+            } else if (!chain.getChainHashValue().equals(hash)) {
                 return "FALSE \n Chain hash and computed hash do not match";
             } else {
                 return "TRUE";
@@ -185,26 +550,24 @@ public class BlockChain {
         }
 
         // More than 1 block
-        if (blockList.size() > 1) {
-            for (int i = 1; i < blockList.size(); i++) {
-                Block currentBlock = this.blockList.get(i);
-                Block previousBlock = this.blockList.get(i - 1);
-
-                String hash = currentBlock.calculateHash();
-                String hashPointer = currentBlock.getPreviousHash();
-                // Calculate prefix based on difficulty, number of leading zeroes based on the difficulty value
-                String prefix = new String(new char[currentBlock.getDifficulty()]).replace("\0", "0");
-
-                if (!hash.substring(0, currentBlock.getDifficulty()).equals(prefix))
-                    return "FALSE \n Improper hash on node " + i + " Does not begin with " + prefix;
+        if (chain.getChainSize() > 1) {
+            for (int i = 1; i < chain.getChainSize(); i++) {
+                Block currentBlock = chain.getBlock(i);
+                Block previousBlock = chain.getBlock(i - 1);
+
+                Hash hash = currentBlock.computeHash();
+                Hash hashPointer = currentBlock.getPreviousHashValue();
+
+                if (!currentBlock.meetsDifficulty(hash))
+                    return "FALSE \n Improper hash on node " + i + " Does not begin with " + describeTarget(currentBlock);
                     // Check proof of work / leading zeros
-                else if (!hashPointer.equals(previousBlock.calculateHash()))
+                else if (!previousBlock.computeHash().equals(hashPointer))
                     return "FALSE \n Improper previous hash";
             }
         }
 
         // Chain hash , check the last element added to to the blocklist
-        if (!chainHash.equals(blockList.get(blockList.size() - 1).calculateHash())) {
+        if (chain.getChainSize() == 0 || !chain.getLatestBlock().computeHash().equals(chain.getChainHashValue())) {
             return "Chain hash error";
         }
 
@@ -220,23 +583,58 @@ public class BlockChain {
      * @throws NoSuchAlgorithmException
      */
     public void repairChain() throws NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        BlockchainEvents.Repair event = new BlockchainEvents.Repair();
+        event.begin();
+        try {
+            fixChain();
+        } finally {
+            // Blocks may have been changed directly through getBlock, so resynchronize the totals
+            recomputeTotals();
+            this.version++;
+            // Readers keep the version from before the repair until it is complete
+            publish();
+            Metrics.repairMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            event.end();
+            if (event.shouldCommit()) {
+                event.chainLength = blocks.size();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Recompute the links and proof of work of every block, as described in repairChain.
+     */
+    private void fixChain() throws NoSuchAlgorithmException {
 
         // Genesis block
-        if (blockList.size() == 1) {
+        if (blocks.size() == 1) {
             //Reset previous hash and recompute proof of work
-            blockList.get(0).setPreviousHash("");
-            blockList.get(0).proofOfWork();
+            Block genesis = blocks.get(0).copy();
+            genesis.setPreviousHash((Hash) null);
+            genesis.proofOfWork();
+            store(0, genesis);
         }
 
-        if (blockList.size() > 1) {
-            for (int i = 1; i < blockList.size(); i++) {
+        if (blocks.size() > 1) {
+            Hash previousHash = blocks.get(0).computeHash();
+            for (int i = 1; i < blocks.size(); i++) {
                 // Reset previous hash and recompute proof of work
-                blockList.get(i).setPreviousHash(blockList.get(i - 1).calculateHash());
-                blockList.get(i).proofOfWork();
+                Block block = blocks.get(i).copy();
+                block.setPreviousHash(previousHash);
+                previousHash = Hash.fromHex(block.proofOfWork());
+                store(i, block);
             }
 
             // Reset chain hash
-            this.chainHash = blockList.get(blockList.size() - 1).calculateHash();
+            if (wal != null) {
+                JsonObject record = new JsonObject();
+                record.addProperty("op", "chainHash");
+                record.addProperty("hash", previousHash.toHex());
+                wal.append(record);
+            }
+            this.chainHash = previousHash;
         }
     }
 }
@@ -0,0 +1,106 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exposes a blockchain and the mining controls over JMX as "org.example:type=BlockChain".
+ * No attribute waits for the chain lock, so a poll never stalls behind a proof of work or a
+ * repair. Chain attributes come from the latest snapshot when snapshots are kept; otherwise
+ * they are the chain's running values, which may be a moment out of date.
+ */
+public class BlockChainMonitor implements BlockChainMonitorMBean {
+    private final BlockChain chain;
+
+    /**
+     * Constructor for a monitor of the given chain.
+     *
+     * @param chain The blockchain to expose.
+     */
+    public BlockChainMonitor(BlockChain chain) {
+        this.chain = chain;
+    }
+
+    /**
+     * Register a monitor for the chain with the platform MBean server.
+     *
+     * @param chain The blockchain to expose.
+     * @throws JMException If the MBean cannot be registered.
+     */
+    public static void register(BlockChain chain) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new BlockChainMonitor(chain),
+                new ObjectName("org.example:type=BlockChain"));
+    }
+
+    @Override
+    public int getChainSize() {
+        return chain.getView().getChainSize();
+    }
+
+    @Override
+    public int getTotalDifficulty() {
+        return chain.getView().getTotalDifficulty();
+    }
+
+    @Override
+    public double getTotalExpectedHashes() {
+        return chain.getView().getTotalExpectedHashes();
+    }
+
+    @Override
+    public String getChainHash() {
+        return chain.getView().getChainHash();
+    }
+
+    @Override
+    public int getHashesPerSecond() {
+        return chain.getHashesPerSecond();
+    }
+
+    @Override
+    public long getMiningHashesPerSecond() {
+        return Metrics.getMiningHashesPerSecond();
+    }
+
+    @Override
+    public boolean isMining() {
+        return !Miner.getJobs().isEmpty();
+    }
+
+    @Override
+    public String[] getMiningJobs() {
+        return Miner.getJobs().stream().map(Miner.Job::toString).toArray(String[]::new);
+    }
+
+    @Override
+    public long getMiningHashesTried() {
+        long hashes = 0;
+        for (Miner.Job job : Miner.getJobs())
+            hashes += job.getHashesTried();
+        return hashes;
+    }
+
+    @Override
+    public int getMiningThreads() {
+        return Miner.getThreads();
+    }
+
+    @Override
+    public void setMiningThreads(int threads) {
+        Miner.setThreads(threads);
+    }
+
+    @Override
+    public boolean cancelMining(long jobId) {
+        return Miner.cancel(jobId);
+    }
+
+    @Override
+    public int cancelAllMining() {
+        return Miner.cancelAll();
+    }
+}
@@ -0,0 +1,63 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+/**
+ * JMX management interface for a running blockchain node.
+ */
+public interface BlockChainMonitorMBean {
+
+    int getChainSize();
+
+    int getTotalDifficulty();
+
+    double getTotalExpectedHashes();
+
+    String getChainHash();
+
+    /**
+     * Hash rate of one thread, measured in the background by HashRateCalibrator; 0 until
+     * the first measurement.
+     */
+    int getHashesPerSecond();
+
+    /**
+     * Hash rate actually achieved while mining, averaged since startup.
+     */
+    long getMiningHashesPerSecond();
+
+    boolean isMining();
+
+    /**
+     * One line per proof of work in progress, oldest first, with the job id to cancel it by.
+     */
+    String[] getMiningJobs();
+
+    /**
+     * Nonces tried so far by all proofs of work in progress, or 0 when idle.
+     */
+    long getMiningHashesTried();
+
+    int getMiningThreads();
+
+    /**
+     * Cap the number of threads used by proof of work, from the next block on.
+     */
+    void setMiningThreads(int threads);
+
+    /**
+     * Cancel one proof of work in progress, as listed by getMiningJobs.
+     *
+     * @param jobId The job id.
+     * @return True if the job was running.
+     */
+    boolean cancelMining(long jobId);
+
+    /**
+     * Cancel every proof of work in progress.
+     *
+     * @return The number of jobs cancelled.
+     */
+    int cancelAllMining();
+}
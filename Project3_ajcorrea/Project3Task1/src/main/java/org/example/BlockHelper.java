@@ -24,4 +24,25 @@ public class BlockHelper {
         }
         return hexString.toString();
     }
+
+    /**
+     * Checks whether a hexadecimal hash starts with at least the given number of zero bits.
+     *
+     * @param hexHash The hash as a hexadecimal string.
+     * @param bits    The number of leading zero bits required.
+     * @return True if the first {@code bits} bits of the hash are zero.
+     */
+    public static boolean hasLeadingZeroBits(String hexHash, int bits) {
+        int digits = bits / 4;
+        if (hexHash.length() < digits + (bits % 4 == 0 ? 0 : 1))
+            return false;
+        for (int i = 0; i < digits; i++) {
+            if (hexHash.charAt(i) != '0')
+                return false;
+        }
+        if (bits % 4 == 0)
+            return true;
+        // The next hex digit must be small enough that its top (bits % 4) bits are zero
+        return Character.digit(hexHash.charAt(digits), 16) < (16 >> (bits % 4));
+    }
 }
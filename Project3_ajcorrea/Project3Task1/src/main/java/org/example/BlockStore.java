@@ -0,0 +1,88 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Where a BlockChain keeps its blocks, in chain order. Stores are not thread safe; the chain
+ * lock guards them. A store may hand out copies rather than the blocks it holds, so a changed
+ * block must be written back with set.
+ * <p>
+ * The store is chosen with {@code -Dchain.store=heap} (default), {@code columnar},
+ * {@code offheap} or {@code tiered}.
+ */
+public interface BlockStore extends Iterable<Block> {
+
+    int size();
+
+    Block get(int i);
+
+    void add(Block block);
+
+    /**
+     * Replace the block at an index, e.g. after changing its data or nonce.
+     */
+    void set(int i, Block block);
+
+    /**
+     * Get the difficulty in bits of the block at an index, without decoding the whole block
+     * where the store allows.
+     */
+    default int getDifficultyBits(int i) {
+        return get(i).getDifficultyBits();
+    }
+
+    /**
+     * Get the timestamp in milliseconds of the block at an index, without decoding the whole
+     * block where the store allows.
+     */
+    default long getTimestampMillis(int i) {
+        return get(i).getTimestamp().getTime();
+    }
+
+    /**
+     * Iterate the blocks in chain order.
+     */
+    @Override
+    default Iterator<Block> iterator() {
+        return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public Block next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Build the store named by the chain.store system property.
+     *
+     * @return A new, empty store.
+     */
+    static BlockStore fromSystemProperties() {
+        String kind = System.getProperty("chain.store", "heap");
+        switch (kind) {
+            case "heap":
+                return new HeapBlockStore();
+            case "columnar":
+                return new ColumnarBlockStore();
+            case "offheap":
+                return new OffHeapBlockStore(Integer.getInteger("chain.store.chunkBytes", 16 << 20));
+            case "tiered":
+                return TieredBlockStore.fromSystemProperties();
+            default:
+                throw new IllegalArgumentException("Unknown chain.store: " + kind);
+        }
+    }
+}
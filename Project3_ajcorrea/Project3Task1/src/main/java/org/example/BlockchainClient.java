@@ -0,0 +1,368 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous client for the blockchain server. Requests are spread round-robin over a pool
+ * of connections and pipelined on each one; replies are matched back to their request by the
+ * id the server echoes. A connection that fails, or on which a request times out, is replaced on
+ * its next use.
+ */
+public class BlockchainClient implements Closeable {
+    private final String host;
+    private final int port;
+    private final long timeoutMillis;
+    private final Connection[] pool;
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong nextSlot = new AtomicLong();
+    // Encodings asked for on every new connection, or null for uncompressed replies
+    private volatile String encodings;
+    private volatile boolean closed;
+
+    /**
+     * Constructor for a pooled client. Connections are opened lazily.
+     *
+     * @param host          The server host name.
+     * @param port          The server port.
+     * @param poolSize      Number of connections to spread requests over.
+     * @param timeoutMillis Time after which a request without a reply fails with a TimeoutException;
+     *                      also bounds how long opening a connection may take.
+     */
+    public BlockchainClient(String host, int port, int poolSize, long timeoutMillis) {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.pool = new Connection[poolSize];
+    }
+
+    /**
+     * Constructor for a client of the local server on the default port.
+     */
+    public BlockchainClient() {
+        this("localhost", 7777, 4, 60000);
+    }
+
+    /**
+     * Request the basic status of the blockchain (op 0).
+     *
+     * @return The status reply.
+     */
+    public CompletableFuture<JsonObject> status() {
+        return send(new RequestMessage(0));
+    }
+
+    /**
+     * Add a transaction to the blockchain (op 1).
+     *
+     * @param difficulty  The difficulty of the new block.
+     * @param transaction The transaction to store.
+     * @return The reply with the time taken to add the block.
+     */
+    public CompletableFuture<JsonObject> addBlock(int difficulty, String transaction) {
+        return send(new RequestMessage(1, difficulty, transaction));
+    }
+
+    /**
+     * Add a transaction to the blockchain (op 1) with a difficulty given in leading zero bits.
+     *
+     * @param difficultyBits The number of leading zero bits the block hash must have.
+     * @param transaction    The transaction to store.
+     * @return The reply with the time taken to add the block.
+     */
+    public CompletableFuture<JsonObject> addBlockWithBits(int difficultyBits, String transaction) {
+        RequestMessage request = new RequestMessage(1, 0, transaction);
+        request.setDifficultyBits(difficultyBits);
+        return send(request);
+    }
+
+    /**
+     * Verify the blockchain (op 2).
+     *
+     * @return The reply with the time taken to verify the chain.
+     */
+    public CompletableFuture<JsonObject> verify() {
+        return send(new RequestMessage(2));
+    }
+
+    /**
+     * View the whole blockchain (op 3).
+     *
+     * @return The reply holding the chain as JSON.
+     */
+    public CompletableFuture<JsonObject> view() {
+        return send(new RequestMessage(3));
+    }
+
+    /**
+     * Overwrite the data of a block (op 4).
+     *
+     * @param index       The index of the block to corrupt.
+     * @param transaction The new data for the block.
+     * @return The reply confirming the change.
+     */
+    public CompletableFuture<JsonObject> corrupt(int index, String transaction) {
+        return send(new RequestMessage(4, index, transaction));
+    }
+
+    /**
+     * Repair the blockchain (op 5).
+     *
+     * @return The reply with the time taken to repair the chain.
+     */
+    public CompletableFuture<JsonObject> repair() {
+        return send(new RequestMessage(5));
+    }
+
+    /**
+     * Request the server's live metrics (op 7).
+     *
+     * @return The reply holding the metrics snapshot.
+     */
+    public CompletableFuture<JsonObject> metrics() {
+        return send(new RequestMessage(7));
+    }
+
+    /**
+     * Submit a transaction to the mempool, to be put into a block later (op 11).
+     *
+     * @param priority    Higher priorities are put into blocks first.
+     * @param transaction The transaction to store.
+     * @return The reply saying whether the transaction was accepted.
+     */
+    public CompletableFuture<JsonObject> submit(int priority, String transaction) {
+        return send(new RequestMessage(11, priority, transaction));
+    }
+
+    /**
+     * Fetch the blocks of the chain from an index onwards (op 8).
+     *
+     * @param from The index of the first block wanted.
+     * @return The reply holding the blocks as a JSON array.
+     */
+    public CompletableFuture<JsonObject> blocksFrom(int from) {
+        return send(new RequestMessage(8, from));
+    }
+
+    /**
+     * Fetch at most count blocks of the chain from an index onwards (op 8).
+     *
+     * @param from  The index of the first block wanted.
+     * @param count The largest number of blocks to return.
+     * @return The reply holding the blocks as a JSON array.
+     */
+    public CompletableFuture<JsonObject> blocksFrom(int from, int count) {
+        return send(new RequestMessage(8, from, count));
+    }
+
+    /**
+     * Fetch at most count block headers from an index onwards (op 10).
+     *
+     * @param from  The index of the first header wanted.
+     * @param count The largest number of headers to return.
+     * @return The reply holding the headers as a JSON array.
+     */
+    public CompletableFuture<JsonObject> headersFrom(int from, int count) {
+        return send(new RequestMessage(10, from, count));
+    }
+
+    /**
+     * Announce a mined block to the server so it can append it (op 9).
+     *
+     * @param block The block, as written by Block.toJson.
+     * @return The reply saying whether the block was appended, and the server's chain size.
+     */
+    public CompletableFuture<JsonObject> announce(JsonObject block) {
+        return send(new RequestMessage(9, block));
+    }
+
+    /**
+     * Ask for large replies to be compressed (op 12) on every connection opened from now on.
+     * Call before the first request so the whole pool is covered.
+     *
+     * @param encodings Comma-separated encodings in order of preference, e.g. "deflate-dict,gzip".
+     */
+    public void requestCompression(String encodings) {
+        this.encodings = encodings;
+    }
+
+    /**
+     * Send a request on the next pooled connection.
+     *
+     * @param requestMessage The request to send.
+     * @return A future completed with the server's reply.
+     */
+    CompletableFuture<JsonObject> send(RequestMessage requestMessage) {
+        CompletableFuture<JsonObject> reply = new CompletableFuture<>();
+        if (closed) {
+            reply.completeExceptionally(new IOException("Client is closed"));
+            return reply;
+        }
+        long id = nextId.getAndIncrement();
+        requestMessage.setId(id);
+        try {
+            Connection connection = connection((int) (nextSlot.getAndIncrement() % pool.length));
+            connection.send(id, requestMessage, reply);
+        } catch (IOException e) {
+            reply.completeExceptionally(e);
+        }
+        return reply.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the connection in a pool slot, reconnecting if it is missing or broken.
+     *
+     * @param slot The pool slot.
+     * @return An open connection.
+     * @throws IOException If the server cannot be reached.
+     */
+    private Connection connection(int slot) throws IOException {
+        synchronized (pool) {
+            Connection connection = pool[slot];
+            if (connection != null && !connection.broken)
+                return connection;
+        }
+        // Connect outside the pool lock, so a slow connect only holds up its own borrower
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), (int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        Connection fresh = new Connection(socket);
+        // Replies are decoded whether or not the server agrees, so the answer is not awaited
+        if (encodings != null) {
+            RequestMessage negotiate = new RequestMessage(12, encodings);
+            long id = nextId.getAndIncrement();
+            negotiate.setId(id);
+            fresh.send(id, negotiate, new CompletableFuture<>());
+        }
+        synchronized (pool) {
+            Connection connection = pool[slot];
+            if (closed || (connection != null && !connection.broken)) {
+                // The client was closed, or another borrower reconnected the slot first
+                fresh.close(new IOException("Client is closed"));
+                if (closed)
+                    throw new IOException("Client is closed");
+                return connection;
+            }
+            pool[slot] = fresh;
+            return fresh;
+        }
+    }
+
+    /**
+     * Close every pooled connection. Requests still waiting fail with an IOException.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (pool) {
+            for (Connection connection : pool) {
+                if (connection != null)
+                    connection.close(new IOException("Client is closed"));
+            }
+        }
+    }
+
+    /**
+     * One socket to the server with its own reader thread.
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final PrintWriter out;
+        // Requests sent on this connection that still wait for a reply, by id
+        private final Map<Long, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>();
+        private volatile boolean broken;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            Thread reader = new Thread(() -> readReplies(in), "blockchain-client-" + socket.getLocalPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Write a request and register the future its reply completes.
+         */
+        void send(long id, RequestMessage requestMessage, CompletableFuture<JsonObject> reply) throws IOException {
+            pending.put(id, reply);
+            reply.whenComplete((json, e) -> {
+                pending.remove(id);
+                // A request that timed out would block the replies pipelined behind it, so the
+                // connection is given up and the slot reconnects on its next use
+                if (e instanceof TimeoutException)
+                    close(new IOException("Request " + id + " timed out; connection closed", e));
+            });
+            synchronized (out) {
+                out.println(requestMessage.getRequestJson());
+                out.flush();
+                if (out.checkError()) {
+                    IOException e = new IOException("Connection to server lost");
+                    close(e);
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Complete pending requests as their replies arrive, until the connection ends.
+         */
+        private void readReplies(BufferedReader in) {
+            IOException cause = new IOException("Connection closed by server");
+            try {
+                String reply;
+                while ((reply = in.readLine()) != null) {
+                    JsonObject jsonReply = JsonParser.parseString(reply).getAsJsonObject();
+                    CompletableFuture<JsonObject> future = pending.remove(jsonReply.get("id").getAsLong());
+                    if (future != null)
+                        future.complete(Compression.decode(jsonReply));
+                }
+            } catch (IOException e) {
+                cause = e;
+            } catch (RuntimeException e) {
+                // A reply that cannot be understood leaves the rest of the stream unusable
+                cause = new IOException("Bad reply from server", e);
+            }
+            close(cause);
+        }
+
+        /**
+         * Mark the connection broken, close the socket and fail whatever is still pending.
+         */
+        void close(IOException cause) {
+            broken = true;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore exception on close
+            }
+            for (CompletableFuture<JsonObject> future : pending.values())
+                future.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the phases of serving a request. They cost next to nothing
+ * unless a recording is running, e.g. one started with
+ * {@code -XX:StartFlightRecording=filename=server.jfr} or {@code jcmd <pid> JFR.start}.
+ */
+public class BlockchainEvents {
+
+    private BlockchainEvents() {
+    }
+
+    @Name("org.example.ProofOfWork")
+    @Label("Proof of Work")
+    @Category("Blockchain")
+    @Description("Search for a nonce that gives a block hash the required prefix")
+    static class ProofOfWork extends Event {
+        @Label("Block Index")
+        int blockIndex;
+
+        @Label("Difficulty")
+        int difficulty;
+
+        @Label("Nonces Tried")
+        long noncesTried;
+
+        @Label("Threads")
+        int threads;
+
+        @Label("Cancelled")
+        boolean cancelled;
+    }
+
+    @Name("org.example.Verify")
+    @Label("Verify Chain")
+    @Category("Blockchain")
+    static class Verify extends Event {
+        @Label("Chain Length")
+        int chainLength;
+
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("org.example.Repair")
+    @Label("Repair Chain")
+    @Category("Blockchain")
+    static class Repair extends Event {
+        @Label("Chain Length")
+        int chainLength;
+    }
+
+    @Name("org.example.Serialize")
+    @Label("Serialize Chain")
+    @Category("Blockchain")
+    @Description("Conversion of the whole chain to JSON")
+    static class Serialize extends Event {
+        @Label("Chain Length")
+        int chainLength;
+
+        @Label("Characters")
+        long characters;
+    }
+
+    @Name("org.example.Request")
+    @Label("Request")
+    @Category({"Blockchain", "Server"})
+    @Description("One client request, from parsing it to flushing the reply")
+    static class Request extends Event {
+        @Label("Op")
+        int op;
+
+        // Clients choose their ids, which need not be numbers, so the id is kept as sent
+        @Label("Request Id")
+        String requestId;
+
+        @Label("Chain Length")
+        int chainLength;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("org.example.ResponseWrite")
+    @Label("Response Write")
+    @Category({"Blockchain", "Server"})
+    @Description("Writing and flushing a reply to the client socket")
+    static class ResponseWrite extends Event {
+        @Label("Op")
+        int op;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+}
@@ -0,0 +1,171 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the chain over and over in the background, a small slice of blocks at a time, so
+ * tampering such as op 4 shows up in status without anyone paying for a full op 2 pass. When
+ * the chain keeps snapshots, each slice reads the latest one and never takes the chain lock;
+ * otherwise a slice holds the chain lock only for its own few hashes. The pause after each
+ * slice keeps the auditor within its hash budget. The first invalid block of the current pass is published as
+ * soon as it is found, and cleared once a later pass gets through the whole chain.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Daudit.hashesPerSecond=10000   hash budget; the auditor is off unless this is set
+ * -Daudit.sliceBlocks=64          blocks checked while holding the chain lock
+ * </pre>
+ */
+public class ChainAuditor {
+    private final BlockChain chain;
+    private final long hashesPerSecond;
+    private final int sliceBlocks;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chain-auditor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Next block to check; guarded by this auditor
+    private int next;
+    // First invalid block found since the last complete pass, or -1
+    private volatile int firstInvalid = -1;
+    private volatile long passes;
+
+    /**
+     * Constructor for an auditor of the given chain.
+     *
+     * @param chain           The chain to verify.
+     * @param hashesPerSecond Hashes the auditor may compute each second.
+     * @param sliceBlocks     Blocks checked in each slice.
+     */
+    public ChainAuditor(BlockChain chain, long hashesPerSecond, int sliceBlocks) {
+        this.chain = chain;
+        this.hashesPerSecond = hashesPerSecond;
+        this.sliceBlocks = sliceBlocks;
+    }
+
+    /**
+     * Build an auditor from the audit.* system properties and start it.
+     *
+     * @param chain The chain to verify.
+     * @return The running auditor, or null if no hash budget is set.
+     */
+    public static ChainAuditor startFromSystemProperties(BlockChain chain) {
+        long hashesPerSecond = Long.getLong("audit.hashesPerSecond", 0);
+        if (hashesPerSecond <= 0)
+            return null;
+        ChainAuditor auditor = new ChainAuditor(chain, hashesPerSecond,
+                Integer.getInteger("audit.sliceBlocks", 64));
+        auditor.scheduler.execute(auditor::runSlice);
+        return auditor;
+    }
+
+    /**
+     * Get the first invalid block found since the last complete pass.
+     *
+     * @return The block index, or -1 if none has been found.
+     */
+    public int getFirstInvalid() {
+        return firstInvalid;
+    }
+
+    /**
+     * Get the number of passes completed without finding an invalid block.
+     *
+     * @return The clean passes so far.
+     */
+    public long getPasses() {
+        return passes;
+    }
+
+    /**
+     * Forget the current pass and its result, e.g. after the chain has been repaired. A slice
+     * under way finishes first, so its result is forgotten too.
+     */
+    public synchronized void restart() {
+        next = 0;
+        firstInvalid = -1;
+    }
+
+    /**
+     * Check one slice, then schedule the next one once the hashes spent fit the budget.
+     */
+    private void runSlice() {
+        long start = System.nanoTime();
+        // A slice that fails still counts against the budget, so failures cannot spin
+        int hashes = sliceBlocks;
+        try {
+            ChainSnapshot snapshot = chain.getSnapshot();
+            if (snapshot != null) {
+                hashes = auditSlice(snapshot);
+            } else {
+                synchronized (chain) {
+                    hashes = auditSlice(chain);
+                }
+            }
+        } catch (NoSuchAlgorithmException | RuntimeException e) {
+            EchoServerTCP.log.warn("Audit slice failed: " + e);
+        } finally {
+            // Always schedule the next slice, or auditing would stop for good
+            long delay = hashes * 1_000_000_000L / hashesPerSecond - (System.nanoTime() - start);
+            scheduler.schedule(this::runSlice, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Check the blocks from next on, in the same way as BlockChain.isChainValid.
+     *
+     * @param view The latest snapshot, or the chain itself with its lock held.
+     * @return The number of hashes computed.
+     */
+    private synchronized int auditSlice(ChainView view) throws NoSuchAlgorithmException {
+        int size = view.getChainSize();
+        if (next >= size)
+            next = 0;
+        int hashes = 0;
+        // The block before the slice is hashed again, as it may have changed since the last slice
+        Hash previousHash = null;
+        if (next > 0) {
+            previousHash = view.getBlock(next - 1).computeHash();
+            hashes++;
+        }
+        int end = Math.min(size, next + sliceBlocks);
+        for (int i = next; i < end; i++) {
+            Block block = view.getBlock(i);
+            Hash hash = block.computeHash();
+            hashes++;
+            Metrics.blocksAudited.increment();
+            if (!block.meetsDifficulty(hash) || (i > 0 && !previousHash.equals(block.getPreviousHashValue())) ||
+                    (i == size - 1 && !hash.equals(view.getChainHashValue()))) {
+                fail(i);
+                return hashes;
+            }
+            previousHash = hash;
+        }
+        next = end;
+        if (next == size) {
+            firstInvalid = -1;
+            passes++;
+            next = 0;
+        }
+        return hashes;
+    }
+
+    /**
+     * Publish an invalid block and start the next pass.
+     */
+    private void fail(int i) {
+        if (firstInvalid != i)
+            EchoServerTCP.log.info("Audit found block " + i + " invalid");
+        firstInvalid = i;
+        next = 0;
+    }
+}
@@ -0,0 +1,290 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Keeps the op 3 view of the chain on disk in its wire format, so a large view is sent with
+ * FileChannel.transferTo straight from the page cache to the client socket, without building
+ * the chain's JSON on the heap. The file holds each block's JSON already escaped as it
+ * appears inside the reply's "response" string, separated by commas; a reply is a short
+ * prefix, the file and a short suffix.
+ * <p>
+ * The file is brought up to date under the chain lock when a view is asked for, and sending
+ * happens outside it. New blocks are appended, which does not disturb views in flight, since a
+ * view only covers the file as it was when it was taken. A block changed in place starts a new
+ * generation instead: the entries before it are copied to a new file and the rest written
+ * after them, so nothing under the chain lock waits for a send. An old generation is closed
+ * and deleted once the last view of it is released, and the current one is deleted when the
+ * server exits.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Dexport.file=chain.export       export file, with the generation appended; views are built
+ *                                  on the heap unless this is set
+ * -Dexport.minBlocks=1000          smallest chain sent from the file
+ * </pre>
+ */
+public class ChainExport {
+    private final BlockChain chain;
+    private final Path path;
+    private final int minBlocks;
+    // Generation views are taken from; only changed under the chain lock, but volatile so the
+    // shutdown hook sees the latest. The fields below are only touched under the chain lock
+    private volatile Generation current;
+    private long generations;
+    // End of each exported block's entry in the current generation
+    private long[] ends = new long[1024];
+    private int exported;
+    // Lowest block changed in place but not yet rewritten, e.g. after a failed rewrite
+    private int rewriteFrom = Integer.MAX_VALUE;
+
+    /**
+     * Constructor for an export of the given chain.
+     *
+     * @param chain     The chain to export.
+     * @param path      The export file; generations are kept next to it.
+     * @param minBlocks Smallest chain sent from the file.
+     * @throws IOException If the first generation cannot be created.
+     */
+    public ChainExport(BlockChain chain, Path path, int minBlocks) throws IOException {
+        this.chain = chain;
+        this.path = path;
+        this.minBlocks = minBlocks;
+        this.current = newGeneration();
+        // Older generations delete themselves once retired, so only the current one is left
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(current.path);
+            } catch (IOException e) {
+                // Nothing more can be done while exiting
+            }
+        }, "export-cleanup"));
+    }
+
+    /**
+     * Build an export from the export.* system properties.
+     *
+     * @param chain The chain to export.
+     * @return The export, or null if no export.file is set.
+     * @throws IOException If the file cannot be created.
+     */
+    public static ChainExport fromSystemProperties(BlockChain chain) throws IOException {
+        String name = System.getProperty("export.file");
+        if (name == null)
+            return null;
+        return new ChainExport(chain, Paths.get(name), Integer.getInteger("export.minBlocks", 1000));
+    }
+
+    /**
+     * Check whether the chain is long enough to be sent from the file.
+     *
+     * @return True if views should use the export.
+     */
+    public boolean isWorthwhile() {
+        return chain.getChainSize() >= minBlocks;
+    }
+
+    /**
+     * Bring the file up to date with the chain and take a view of it. Call with the chain lock
+     * held, and release the view once it has been sent, whether or not the send succeeds.
+     *
+     * @return The current view.
+     * @throws IOException If the file cannot be written.
+     */
+    public View catchUp() throws IOException {
+        rewriteFrom = Math.min(rewriteFrom, chain.takeLowestChanged());
+        if (rewriteFrom < exported) {
+            // Views in flight still read the old generation, so the rewrite goes to a new one
+            long keep = rewriteFrom == 0 ? 0 : ends[rewriteFrom - 1];
+            Generation next = newGeneration();
+            try {
+                long position = 0;
+                while (position < keep)
+                    position += current.file.transferTo(position, keep - position, next.file);
+            } catch (IOException e) {
+                next.retire();
+                throw e;
+            }
+            current.retire();
+            current = next;
+            exported = rewriteFrom;
+        }
+        rewriteFrom = Integer.MAX_VALUE;
+        long position = exported == 0 ? 0 : ends[exported - 1];
+        for (int i = exported; i < chain.getChainSize(); i++) {
+            String quoted = new JsonPrimitive(chain.getBlock(i).toString()).toString();
+            String entry = (i == 0 ? "" : ",") + quoted.substring(1, quoted.length() - 1);
+            ByteBuffer bytes = ByteBuffer.wrap(entry.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining())
+                position += current.file.write(bytes, position);
+            if (i == ends.length)
+                ends = Arrays.copyOf(ends, 2 * ends.length);
+            ends[i] = position;
+            exported = i + 1;
+        }
+        return new View(current.acquire(), position);
+    }
+
+    /**
+     * Create the file for the next generation.
+     */
+    private Generation newGeneration() throws IOException {
+        Path file = path.resolveSibling(path.getFileName() + "." + generations++);
+        return new Generation(file, FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * One export file, kept until it has been replaced and no view reads it any more.
+     */
+    private static class Generation {
+        private final Path path;
+        private final FileChannel file;
+        // Views not yet released, and whether a newer generation has replaced this one;
+        // guarded by this
+        private int readers;
+        private boolean retired;
+
+        Generation(Path path, FileChannel file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        synchronized Generation acquire() {
+            readers++;
+            return this;
+        }
+
+        synchronized void release() {
+            readers--;
+            if (retired && readers == 0)
+                delete();
+        }
+
+        synchronized void retire() {
+            retired = true;
+            if (readers == 0)
+                delete();
+        }
+
+        private void delete() {
+            try {
+                file.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                EchoServerTCP.log.warn("Could not delete old chain export " + path + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The first bytes of one generation, as they were when the view was taken. A view must be
+     * released exactly once, after it has been sent.
+     */
+    public static class View {
+        private final Generation generation;
+        private final long length;
+
+        private View(Generation generation, long length) {
+            this.generation = generation;
+            this.length = length;
+        }
+
+        /**
+         * Get the length of the file the view covers.
+         *
+         * @return The bytes of the view, without the reply's prefix and suffix.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Let the generation go, so it can be deleted once it has been replaced.
+         */
+        public void release() {
+            generation.release();
+        }
+
+        /**
+         * Send a view reply: its prefix, the view's bytes of the file and its suffix, in the
+         * same form as a view built on the heap.
+         *
+         * @param channel   The client's socket channel.
+         * @param selection The request op.
+         * @param id        The request id, or null.
+         * @return The number of bytes sent.
+         * @throws IOException If the client cannot be written to.
+         */
+        public long send(SocketChannel channel, int selection, JsonElement id) throws IOException {
+            ByteBuffer prefix = ByteBuffer.wrap(prefix(selection));
+            ByteBuffer suffix = ByteBuffer.wrap((suffix(id) + "\n").getBytes(StandardCharsets.UTF_8));
+            long sent = prefix.remaining() + length + suffix.remaining();
+            while (prefix.hasRemaining())
+                channel.write(prefix);
+            long position = 0;
+            while (position < length)
+                position += generation.file.transferTo(position, length - position, channel);
+            while (suffix.hasRemaining())
+                channel.write(suffix);
+            return sent;
+        }
+
+        /**
+         * Send a view reply compressed, as agreed for the connection. The file is read through
+         * a small buffer into the compressor, so this costs a copy but still no heap for the
+         * chain.
+         *
+         * @param socket      The client socket's output stream, with nothing else buffered for it.
+         * @param compression The connection's compression.
+         * @param selection   The request op.
+         * @param id          The request id, or null.
+         * @return The number of bytes sent.
+         * @throws IOException If the client cannot be written to.
+         */
+        public long send(OutputStream socket, Compression compression, int selection, JsonElement id)
+                throws IOException {
+            Compression.Body body = compression.open(socket, id);
+            try (body) {
+                body.write(prefix(selection));
+                ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+                long position = 0;
+                while (position < length) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                    int n = generation.file.read(buffer, position);
+                    if (n < 0)
+                        throw new EOFException("Export file is shorter than its view");
+                    body.write(buffer.array(), 0, n);
+                    position += n;
+                }
+                body.write(suffix(id).getBytes(StandardCharsets.UTF_8));
+            }
+            return body.getWireBytes();
+        }
+    }
+
+    private static byte[] prefix(int selection) {
+        return ("{\"selection\":" + selection + ",\"response\":\"[").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String suffix(JsonElement id) {
+        return "]\"" + (id == null ? "" : ",\"id\":" + id) + "}";
+    }
+}
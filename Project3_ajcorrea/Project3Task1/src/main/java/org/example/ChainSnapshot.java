@@ -0,0 +1,150 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * An immutable version of the chain. BlockChain publishes a new one after every change, so
+ * status, view and verify read a consistent chain without the chain lock, even while a block
+ * is being mined or the chain is being repaired. Versions share their structure: blocks are
+ * held in chunks of CHUNK_BLOCKS, and a new version copies only the chunk directory and the
+ * chunks that changed since the last one. Blocks reachable from a snapshot are never changed
+ * afterwards, as BlockChain copies a block before changing it.
+ * <p>
+ * Snapshots keep every block on the heap. With the heap store they share the blocks
+ * themselves, but they would undo the compact columnar, off-heap and tiered stores, so by
+ * default they are only kept with the heap store; {@code -Dchain.snapshots=true} or
+ * {@code false} overrides this.
+ */
+public final class ChainSnapshot implements ChainView {
+    // Blocks per chunk: the most an append copies, and a directory entry per this many blocks
+    static final int CHUNK_BLOCKS = 256;
+
+    private final Block[][] chunks;
+    private final int size;
+    private final Hash chainHash;
+    private final int totalDifficulty;
+    private final double totalExpectedHashes;
+    private final long version;
+
+    private ChainSnapshot(Block[][] chunks, int size, Hash chainHash, int totalDifficulty,
+                          double totalExpectedHashes, long version) {
+        this.chunks = chunks;
+        this.size = size;
+        this.chainHash = chainHash;
+        this.totalDifficulty = totalDifficulty;
+        this.totalExpectedHashes = totalExpectedHashes;
+        this.version = version;
+    }
+
+    @Override
+    public int getChainSize() {
+        return size;
+    }
+
+    /**
+     * Get a block of this version. The block is shared with later versions and the chain, so
+     * it must not be changed.
+     *
+     * @param i The index of the block.
+     * @return The block at the index.
+     */
+    @Override
+    public Block getBlock(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Block " + i + " of " + size);
+        return chunks[i / CHUNK_BLOCKS][i % CHUNK_BLOCKS];
+    }
+
+    @Override
+    public String getChainHash() {
+        return chainHash == null ? "" : chainHash.toHex();
+    }
+
+    @Override
+    public Hash getChainHashValue() {
+        return chainHash;
+    }
+
+    @Override
+    public int getTotalDifficulty() {
+        return totalDifficulty;
+    }
+
+    @Override
+    public double getTotalExpectedHashes() {
+        return totalExpectedHashes;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String isChainValid() throws NoSuchAlgorithmException {
+        return BlockChain.verify(this);
+    }
+
+    /**
+     * Converts this version of the chain to the same JSON as BlockChain.toString.
+     *
+     * @return JSON string representing the blockchain.
+     */
+    @Override
+    public String toString() {
+        return BlockChain.toJson(this);
+    }
+
+    /**
+     * The chain's working copy of the blocks, changed under the chain lock and turned into a
+     * snapshot by build. Chunks already handed to a snapshot are copied before their first
+     * change after it; the rest are changed in place.
+     */
+    static final class Builder {
+        private Block[][] chunks = new Block[0][];
+        // Whether each chunk belongs to the builder alone, i.e. no snapshot has seen it
+        private boolean[] owned = new boolean[0];
+        private int size;
+
+        void add(Block block) {
+            int chunk = size / CHUNK_BLOCKS;
+            if (chunk == chunks.length) {
+                chunks = Arrays.copyOf(chunks, Math.max(4, 2 * chunks.length));
+                owned = Arrays.copyOf(owned, chunks.length);
+            }
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new Block[CHUNK_BLOCKS];
+                owned[chunk] = true;
+            }
+            own(chunk)[size % CHUNK_BLOCKS] = block;
+            size++;
+        }
+
+        void set(int i, Block block) {
+            own(i / CHUNK_BLOCKS)[i % CHUNK_BLOCKS] = block;
+        }
+
+        /**
+         * Take a snapshot of the blocks so far along with the chain's other state. Costs a copy
+         * of the chunk directory; the chunks are shared.
+         */
+        ChainSnapshot build(Hash chainHash, int totalDifficulty, double totalExpectedHashes,
+                            long version) {
+            Arrays.fill(owned, false);
+            return new ChainSnapshot(Arrays.copyOf(chunks, (size + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS), size,
+                    chainHash, totalDifficulty, totalExpectedHashes, version);
+        }
+
+        private Block[] own(int chunk) {
+            if (!owned[chunk]) {
+                chunks[chunk] = chunks[chunk].clone();
+                owned[chunk] = true;
+            }
+            return chunks[chunk];
+        }
+    }
+}
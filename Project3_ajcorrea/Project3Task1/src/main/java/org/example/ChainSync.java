@@ -0,0 +1,243 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Headers-first download of a peer's chain. Headers (index, hash, previous hash and
+ * difficulty) are fetched in pages and checked first: each must link to the one before and
+ * its hash must meet its difficulty. The full blocks are then fetched in ranges, several at
+ * once and spread over all peers, and each is accepted only if it hashes to the header
+ * already checked. Blocks are appended to the local chain as soon as every block before them
+ * has arrived, so progress survives a failure: a range whose peer fails is retried on another
+ * peer, and a later run resumes from the end of the local chain.
+ * <pre>
+ * -Dsync.headersPerRequest=2000   headers asked for in one request
+ * -Dsync.rangeSize=500            blocks asked for in one request
+ * -Dsync.parallel=4               ranges being downloaded at once
+ * </pre>
+ */
+public class ChainSync {
+    private final BlockChain chain;
+    private final List<PeerReplicator.Peer> peers;
+    private final int headersPerRequest;
+    private final int rangeSize;
+    private final int parallel;
+
+    /**
+     * Constructor for a sync of the given chain from a set of peers.
+     *
+     * @param chain             The chain to append to.
+     * @param peers             The peers to download from.
+     * @param headersPerRequest Headers asked for in one request.
+     * @param rangeSize         Blocks asked for in one request.
+     * @param parallel          Ranges being downloaded at once.
+     */
+    public ChainSync(BlockChain chain, List<PeerReplicator.Peer> peers, int headersPerRequest,
+                     int rangeSize, int parallel) {
+        this.chain = chain;
+        this.peers = peers;
+        this.headersPerRequest = headersPerRequest;
+        this.rangeSize = rangeSize;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Build a sync from the sync.* system properties.
+     *
+     * @param chain The chain to append to.
+     * @param peers The peers to download from.
+     * @return The sync, ready to run.
+     */
+    static ChainSync fromSystemProperties(BlockChain chain, List<PeerReplicator.Peer> peers) {
+        return new ChainSync(chain, peers,
+                Integer.getInteger("sync.headersPerRequest", 2000),
+                Integer.getInteger("sync.rangeSize", 500),
+                Integer.getInteger("sync.parallel", 4));
+    }
+
+    /**
+     * Download the blocks the peers have beyond the end of the local chain and append them.
+     *
+     * @return The number of blocks appended.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     * @throws InterruptedException     If interrupted while waiting for a peer.
+     */
+    public int run() throws NoSuchAlgorithmException, InterruptedException {
+        int start;
+        String tipHash;
+        synchronized (chain) {
+            start = chain.getChainSize();
+            tipHash = chain.getChainHash();
+        }
+        List<JsonObject> headers = fetchHeaders(start, tipHash);
+        if (headers.isEmpty())
+            return 0;
+        EchoServerTCP.log.info("Checked " + headers.size() + " headers from index " + start);
+
+        // Downloaded blocks wait here, by offset from start, until all blocks before them arrive
+        Block[] arrived = new Block[headers.size()];
+        Deque<Integer> ranges = new ArrayDeque<>();
+        for (int offset = 0; offset < headers.size(); offset += rangeSize)
+            ranges.add(offset);
+        Map<Integer, Integer> attempts = new HashMap<>();
+        BlockingQueue<Range> done = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        int appended = 0;
+
+        while (appended < headers.size() && (inFlight > 0 || !ranges.isEmpty())) {
+            while (inFlight < parallel && !ranges.isEmpty()) {
+                int offset = ranges.poll();
+                int attempt = attempts.merge(offset, 1, Integer::sum);
+                // Spread ranges over the peers, moving to the next peer on each retry
+                PeerReplicator.Peer peer = peers.get((offset / rangeSize + attempt - 1) % peers.size());
+                int count = Math.min(rangeSize, headers.size() - offset);
+                peer.client.blocksFrom(start + offset, count).whenComplete(
+                        (reply, e) -> done.add(new Range(offset, peer, reply, e)));
+                inFlight++;
+            }
+
+            Range range = done.take();
+            inFlight--;
+            String problem = range.error != null ? String.valueOf(range.error) : accept(range, headers, arrived);
+            if (problem != null) {
+                EchoServerTCP.log.warn("Blocks from " + (start + range.offset) + " via " + range.peer.address +
+                        " failed: " + problem);
+                if (attempts.get(range.offset) >= 2 * peers.size())
+                    break;
+                ranges.add(range.offset);
+                continue;
+            }
+
+            synchronized (chain) {
+                while (appended < arrived.length && arrived[appended] != null) {
+                    String result = chain.appendMinedBlock(arrived[appended]);
+                    if (!"TRUE".equals(result)) {
+                        EchoServerTCP.log.warn("Rejected block " + (start + appended) + ": " + result);
+                        return appended;
+                    }
+                    arrived[appended++] = null;
+                    Metrics.blocksReplicated.increment();
+                }
+            }
+        }
+        EchoServerTCP.log.info("Appended " + appended + " of " + headers.size() + " blocks");
+        return appended;
+    }
+
+    /**
+     * Fetch and check headers from the first peer that answers, moving on to the next peer
+     * if one fails part way. A reply without headers, or one that cannot be read, counts as
+     * the peer failing.
+     *
+     * @return The headers that link on from the local chain.
+     */
+    private List<JsonObject> fetchHeaders(int start, String previousHash) throws InterruptedException {
+        List<JsonObject> headers = new ArrayList<>();
+        for (PeerReplicator.Peer peer : peers) {
+            try {
+                while (true) {
+                    JsonArray page = peer.client.headersFrom(start + headers.size(), headersPerRequest)
+                            .get().getAsJsonArray("headers");
+                    if (page == null)
+                        throw new IllegalStateException("no headers in reply");
+                    for (JsonElement element : page) {
+                        JsonObject header = element.getAsJsonObject();
+                        String problem = checkHeader(header, start + headers.size(), previousHash);
+                        if (problem != null) {
+                            EchoServerTCP.log.warn("Bad header from " + peer.address + ": " + problem);
+                            return headers;
+                        }
+                        headers.add(header);
+                        previousHash = header.get("hash").getAsString();
+                    }
+                    if (page.size() < headersPerRequest)
+                        return headers;
+                }
+            } catch (ExecutionException e) {
+                EchoServerTCP.log.warn("Peer " + peer.address + " unavailable: " + e.getCause().getMessage());
+            } catch (RuntimeException e) {
+                EchoServerTCP.log.warn("Bad reply from " + peer.address + ": " + e);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Check a header's position, link and proof of work.
+     *
+     * @return Null if the header is good, otherwise what is wrong with it.
+     */
+    private static String checkHeader(JsonObject header, int index, String previousHash) {
+        if (header.get("index").getAsInt() != index)
+            return "expected node " + index + " but got node " + header.get("index");
+        if (!previousHash.equals(header.get("previousHash").getAsString()))
+            return "improper previous hash on node " + index;
+        int bits = header.has("difficultyBits") ? header.get("difficultyBits").getAsInt()
+                : 4 * header.get("difficulty").getAsInt();
+        if (!BlockHelper.hasLeadingZeroBits(header.get("hash").getAsString(), bits))
+            return "improper hash on node " + index;
+        return null;
+    }
+
+    /**
+     * Check that every block of a downloaded range hashes to its header, and keep them.
+     *
+     * @return Null if the range is good, otherwise what is wrong with it, including a reply
+     * without blocks or one that cannot be read.
+     */
+    private String accept(Range range, List<JsonObject> headers, Block[] arrived)
+            throws NoSuchAlgorithmException {
+        JsonArray blocks = range.reply.getAsJsonArray("blocks");
+        if (blocks == null)
+            return "no blocks in reply";
+        int count = Math.min(rangeSize, headers.size() - range.offset);
+        if (blocks.size() < count)
+            return "only " + blocks.size() + " of " + count + " blocks returned";
+        Block[] checked = new Block[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                Block block = Block.fromJson(blocks.get(i).getAsJsonObject());
+                if (!block.calculateHash().equals(headers.get(range.offset + i).get("hash").getAsString()))
+                    return "block " + block.getIndex() + " does not match its header";
+                checked[i] = block;
+            }
+        } catch (RuntimeException e) {
+            return "bad block: " + e;
+        }
+        System.arraycopy(checked, 0, arrived, range.offset, count);
+        return null;
+    }
+
+    /**
+     * The outcome of one range request.
+     */
+    private static class Range {
+        final int offset;
+        final PeerReplicator.Peer peer;
+        final JsonObject reply;
+        final Throwable error;
+
+        Range(int offset, PeerReplicator.Peer peer, JsonObject reply, Throwable error) {
+            this.offset = offset;
+            this.peer = peer;
+            this.reply = reply;
+            this.error = error;
+        }
+    }
+}
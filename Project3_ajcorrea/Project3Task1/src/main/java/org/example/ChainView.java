@@ -0,0 +1,45 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Read access to the chain as one consistent whole. A BlockChain is one for callers holding
+ * the chain lock; a ChainSnapshot is one that needs no lock at all.
+ */
+public interface ChainView {
+
+    int getChainSize();
+
+    Block getBlock(int i);
+
+    default Block getLatestBlock() {
+        return getBlock(getChainSize() - 1);
+    }
+
+    /**
+     * Get the hash of the last block in hex, or "" while the chain is empty.
+     */
+    String getChainHash();
+
+    /**
+     * Get the hash of the last block, or null while the chain is empty.
+     */
+    Hash getChainHashValue();
+
+    int getTotalDifficulty();
+
+    double getTotalExpectedHashes();
+
+    /**
+     * Get the version of the chain this view shows, which changes with every change to it.
+     */
+    long getVersion();
+
+    /**
+     * Check the validity of every block, as described in BlockChain.isChainValid.
+     */
+    String isChainValid() throws NoSuchAlgorithmException;
+}
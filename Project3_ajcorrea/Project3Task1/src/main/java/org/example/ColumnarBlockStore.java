@@ -0,0 +1,175 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps blocks on the heap as columns of primitives rather than one object graph per block:
+ * about 64 bytes a block plus its data, against several hundred for a Block with its
+ * Timestamp, BigInteger and hex Strings. Previous hashes are packed as 32 raw bytes into one
+ * array and block data is pooled as UTF-8 in another. The rare values that do not fit a
+ * column (a missing previous hash, a nonce beyond a long, sub-millisecond timestamps) are
+ * kept aside by index.
+ * <p>
+ * get decodes a fresh Block, so a changed block must be written back with set. Scans that
+ * only need a difficulty or a timestamp read the column directly. Verification still decodes
+ * each block through get, as a block's hash covers all of its fields; the store saves memory
+ * rather than verify time. Data replaced through set
+ * leaves unused bytes in the pool; once they outnumber the live ones, and are at least the
+ * pool's initial size, the live data is copied into a fresh pool, so repeated changes cannot
+ * grow it without bound.
+ */
+public class ColumnarBlockStore implements BlockStore {
+    private static final int HASH_BYTES = Hash.BYTES;
+    private static final int INITIAL_POOL_BYTES = 1024;
+
+    private int size;
+    private int[] indexes = new int[16];
+    private long[] timestamps = new long[16];
+    private int[] difficultyBits = new int[16];
+    private long[] nonces = new long[16];
+    private byte[] previousHashes = new byte[16 * HASH_BYTES];
+    private int[] dataOffsets = new int[16];
+    private int[] dataLengths = new int[16];
+    private byte[] dataPool = new byte[INITIAL_POOL_BYTES];
+    private int dataPoolSize;
+    // Bytes of the pool no longer holding any block's data
+    private int unusedDataBytes;
+
+    // Values that do not fit their column, by block index
+    private final BitSet noPreviousHash = new BitSet();
+    private final Map<Integer, BigInteger> largeNonces = new HashMap<>();
+    private final Map<Integer, Integer> preciseNanos = new HashMap<>();
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Block get(int i) {
+        checkIndex(i);
+        Timestamp timestamp = new Timestamp(timestamps[i]);
+        Integer nanos = preciseNanos.get(i);
+        if (nanos != null)
+            timestamp.setNanos(nanos);
+        String data = new String(dataPool, dataOffsets[i], dataLengths[i], StandardCharsets.UTF_8);
+        Block block = new Block(indexes[i], timestamp, data, difficultyBits[i] / 4);
+        if (difficultyBits[i] % 4 != 0)
+            block.setDifficultyBits(difficultyBits[i]);
+        block.setPreviousHash(noPreviousHash.get(i) ? null : Hash.of(previousHashes, i * HASH_BYTES));
+        BigInteger nonce = largeNonces.get(i);
+        block.setNonce(nonce != null ? nonce : BigInteger.valueOf(nonces[i]));
+        return block;
+    }
+
+    @Override
+    public void add(Block block) {
+        if (size == indexes.length)
+            grow();
+        write(size++, block);
+    }
+
+    @Override
+    public void set(int i, Block block) {
+        checkIndex(i);
+        write(i, block);
+    }
+
+    @Override
+    public int getDifficultyBits(int i) {
+        checkIndex(i);
+        return difficultyBits[i];
+    }
+
+    @Override
+    public long getTimestampMillis(int i) {
+        checkIndex(i);
+        return timestamps[i];
+    }
+
+    /**
+     * Store a block's fields into the columns at an index.
+     */
+    private void write(int i, Block block) {
+        indexes[i] = block.getIndex();
+        Timestamp timestamp = block.getTimestamp();
+        timestamps[i] = timestamp.getTime();
+        if (timestamp.getNanos() % 1_000_000 != 0)
+            preciseNanos.put(i, timestamp.getNanos());
+        else
+            preciseNanos.remove(i);
+        difficultyBits[i] = block.getDifficultyBits();
+
+        BigInteger nonce = block.getNonce();
+        if (nonce.bitLength() < Long.SIZE) {
+            nonces[i] = nonce.longValue();
+            largeNonces.remove(i);
+        } else {
+            largeNonces.put(i, nonce);
+        }
+
+        Hash hash = block.getPreviousHashValue();
+        if (hash != null)
+            hash.copyTo(previousHashes, i * HASH_BYTES);
+        noPreviousHash.set(i, hash == null);
+
+        byte[] data = block.getData().getBytes(StandardCharsets.UTF_8);
+        // Data that fits where the block's old data was is rewritten in place, otherwise it goes
+        // to the end of the pool; a new block has no old data
+        if (data.length > dataLengths[i]) {
+            if (dataPoolSize + data.length > dataPool.length)
+                dataPool = Arrays.copyOf(dataPool, Math.max(2 * dataPool.length, dataPoolSize + data.length));
+            unusedDataBytes += dataLengths[i];
+            dataOffsets[i] = dataPoolSize;
+            dataPoolSize += data.length;
+        } else {
+            unusedDataBytes += dataLengths[i] - data.length;
+        }
+        System.arraycopy(data, 0, dataPool, dataOffsets[i], data.length);
+        dataLengths[i] = data.length;
+        if (unusedDataBytes >= INITIAL_POOL_BYTES && unusedDataBytes > dataPoolSize - unusedDataBytes)
+            compact();
+    }
+
+    /**
+     * Copy every block's data into a fresh pool, in chain order, leaving out the unused bytes.
+     * The cost is amortized over the sets that made them.
+     */
+    private void compact() {
+        byte[] old = dataPool;
+        int live = dataPoolSize - unusedDataBytes;
+        dataPool = new byte[Math.max(INITIAL_POOL_BYTES, 2 * live)];
+        dataPoolSize = 0;
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(old, dataOffsets[i], dataPool, dataPoolSize, dataLengths[i]);
+            dataOffsets[i] = dataPoolSize;
+            dataPoolSize += dataLengths[i];
+        }
+        unusedDataBytes = 0;
+    }
+
+    private void grow() {
+        int capacity = 2 * indexes.length;
+        indexes = Arrays.copyOf(indexes, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        difficultyBits = Arrays.copyOf(difficultyBits, capacity);
+        nonces = Arrays.copyOf(nonces, capacity);
+        previousHashes = Arrays.copyOf(previousHashes, capacity * HASH_BYTES);
+        dataOffsets = Arrays.copyOf(dataOffsets, capacity);
+        dataLengths = Arrays.copyOf(dataLengths, capacity);
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+    }
+}
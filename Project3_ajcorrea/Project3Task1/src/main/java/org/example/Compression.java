@@ -0,0 +1,254 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of large replies, agreed per connection with op 12. The client lists the
+ * encodings it accepts in order of preference and the server answers with the first one it
+ * supports, or "none". From then on, any reply on that connection of at least
+ * compression.minBytes bytes (default 4096) is sent as an envelope on one line:
+ * <pre>
+ * {"id":N,"encoding":"deflate","body":"..."}
+ * </pre>
+ * where body is the reply's JSON line compressed and then Base64 encoded. Encodings:
+ * <pre>
+ * gzip           GZIP
+ * deflate        zlib
+ * deflate-dict   zlib with a preset dictionary of the block field names
+ * </pre>
+ * Chain views repeat the same keys on every block, so the dictionary mostly helps replies
+ * that are only a little over the threshold.
+ */
+public class Compression {
+    // The field names Block.toString writes, both as they appear in op 8 replies and escaped
+    // inside an op 3 reply; zlib favours the end of the dictionary, so op 3 comes last
+    static final byte[] DICTIONARY = ("{\"index\":,\"timestamp\":\"\",\"tx\":\"\",\"previousHash\":\"\"," +
+            "\"nonce\":,\"difficulty\":,\"difficultyBits\":}]" +
+            "{\"selection\":3,\"response\":\"[{\\\"index\\\":,\\\"timestamp\\\":\\\"\\\",\\\"tx\\\":\\\"" +
+            "\\\",\\\"previousHash\\\":\\\"\\\",\\\"nonce\\\":,\\\"difficulty\\\":,\\\"difficultyBits\\\":},")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final String[] ENCODINGS = {"gzip", "deflate", "deflate-dict"};
+
+    private final String encoding;
+    private final int minBytes;
+
+    /**
+     * Constructor for one connection's compression.
+     *
+     * @param encoding One of gzip, deflate or deflate-dict.
+     * @param minBytes Smallest reply that is compressed.
+     */
+    public Compression(String encoding, int minBytes) {
+        this.encoding = encoding;
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * Pick the first encoding offered by a client that the server supports.
+     *
+     * @param offered Comma-separated encodings, in the client's order of preference, or null.
+     * @return The compression for the connection, or null if none is supported.
+     */
+    public static Compression negotiate(String offered) {
+        if (offered == null)
+            return null;
+        for (String encoding : offered.split(",")) {
+            for (String supported : ENCODINGS) {
+                if (supported.equals(encoding.trim()))
+                    return new Compression(supported, Integer.getInteger("compression.minBytes", 4096));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the encoding agreed for the connection.
+     *
+     * @return gzip, deflate or deflate-dict.
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Check whether a reply is large enough to compress.
+     *
+     * @param bytes The size of the reply.
+     * @return True if it should be sent compressed.
+     */
+    public boolean isWorthwhile(long bytes) {
+        return bytes >= minBytes;
+    }
+
+    /**
+     * Start a compressed reply. Whatever is written to the returned stream is the reply's
+     * JSON; closing the stream finishes the envelope line and flushes it, leaving the socket
+     * open.
+     *
+     * @param socket The client socket's output stream, with nothing else buffered for it.
+     * @param id     The request id, or null.
+     * @return The stream to write the reply to.
+     * @throws IOException If the client cannot be written to.
+     */
+    public Body open(OutputStream socket, JsonElement id) throws IOException {
+        return new Body(socket, id);
+    }
+
+    /**
+     * Send a whole reply compressed.
+     *
+     * @param socket The client socket's output stream, with nothing else buffered for it.
+     * @param reply  The reply's JSON.
+     * @param id     The request id, or null.
+     * @return The number of bytes sent.
+     * @throws IOException If the client cannot be written to.
+     */
+    public long send(OutputStream socket, String reply, JsonElement id) throws IOException {
+        Body body = open(socket, id);
+        try (body) {
+            body.write(reply.getBytes(StandardCharsets.UTF_8));
+        }
+        return body.getWireBytes();
+    }
+
+    /**
+     * Unwrap a reply that may have been compressed, for clients.
+     *
+     * @param reply A reply line as parsed.
+     * @return The reply itself, or the reply carried in its envelope.
+     * @throws IOException If the body cannot be decompressed.
+     */
+    public static JsonObject decode(JsonObject reply) throws IOException {
+        if (!reply.has("encoding") || !reply.has("body"))
+            return reply;
+        byte[] compressed = Base64.getDecoder().decode(reply.get("body").getAsString());
+        byte[] json;
+        if (reply.get("encoding").getAsString().equals("gzip")) {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                json = in.readAllBytes();
+            }
+        } else {
+            json = inflate(compressed);
+        }
+        return JsonParser.parseString(new String(json, StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    /**
+     * Inflate a zlib body, supplying the preset dictionary if it was compressed with one.
+     */
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream json = new ByteArrayOutputStream(4 * compressed.length);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsDictionary())
+                    inflater.setDictionary(DICTIONARY);
+                else if (n == 0 && inflater.needsInput())
+                    throw new IOException("Compressed reply is cut short");
+                json.write(buffer, 0, n);
+            }
+            return json.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed reply is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * The reply inside an envelope: compressed, then Base64 encoded, then written to the socket.
+     */
+    public class Body extends FilterOutputStream {
+        private final BufferedOutputStream socket;
+        private final Deflater deflater;
+        private long wireBytes;
+
+        private Body(OutputStream socket, JsonElement id) throws IOException {
+            super(null);
+            this.socket = new BufferedOutputStream(socket);
+            String head = "{" + (id == null ? "" : "\"id\":" + id + ",") + "\"encoding\":\"" + encoding +
+                    "\",\"body\":\"";
+            byte[] headBytes = head.getBytes(StandardCharsets.UTF_8);
+            writeToSocket(headBytes, 0, headBytes.length);
+            // Base64 closes what it wraps when it is closed, which must not close the socket
+            OutputStream base64 = Base64.getEncoder().wrap(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    writeToSocket(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writeToSocket(b, off, len);
+                }
+            });
+            if (encoding.equals("gzip")) {
+                deflater = null;
+                out = new GZIPOutputStream(base64, 8192);
+            } else {
+                deflater = new Deflater();
+                if (encoding.equals("deflate-dict"))
+                    deflater.setDictionary(DICTIONARY);
+                out = new DeflaterOutputStream(base64, deflater, 8192);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /**
+         * Finish the body and the envelope line, and flush them to the socket.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (deflater != null)
+                    deflater.end();
+            }
+            writeToSocket(new byte[]{'"', '}', '\n'}, 0, 3);
+            socket.flush();
+        }
+
+        /**
+         * Get the number of bytes sent for the reply, envelope included.
+         *
+         * @return The bytes on the wire.
+         */
+        public long getWireBytes() {
+            return wireBytes;
+        }
+
+        private void writeToSocket(byte[] b, int off, int len) throws IOException {
+            socket.write(b, off, len);
+            wireBytes += len;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the difficulty of new blocks so that mining one takes about a target time. The hash
+ * rate is estimated from the hashes tried and time taken by the most recent blocks, falling
+ * back to the calibrated rate before any block has been mined. Mining a block at b bits takes
+ * 2^b hashes on average, so the chosen difficulty is log2(rate * target), moved at most one
+ * hex digit per block so a single lucky or unlucky block cannot swing it.
+ * <p>
+ * Enabled on the server with {@code -Dretarget.targetMillis=<ms>}; {@code -Dretarget.window}
+ * sets how many recent blocks are averaged (default 8).
+ */
+public class DifficultyRetargeter {
+    private static final int MIN_BITS = 1;
+    private static final int MAX_BITS = Block.MAX_DIFFICULTY_BITS;
+    // Largest change of difficulty between consecutive blocks
+    private static final int MAX_STEP_BITS = 4;
+
+    private final long targetMillis;
+    // Hashes tried and nanoseconds taken by the most recent blocks, as ring buffers
+    private final long[] hashes;
+    private final long[] nanos;
+    private int recorded;
+    private int currentBits;
+
+    /**
+     * Constructor for a retargeter.
+     *
+     * @param targetMillis The desired time to mine one block.
+     * @param window       Number of recent blocks the hash rate is averaged over.
+     * @param initialBits  Difficulty used until there is a hash rate to go on.
+     */
+    public DifficultyRetargeter(long targetMillis, int window, int initialBits) {
+        this.targetMillis = targetMillis;
+        this.hashes = new long[window];
+        this.nanos = new long[window];
+        this.currentBits = initialBits;
+    }
+
+    /**
+     * Build a retargeter from the retarget.* system properties.
+     *
+     * @return The retargeter, or null if retargeting is not enabled.
+     */
+    public static DifficultyRetargeter fromSystemProperties() {
+        long targetMillis = Long.getLong("retarget.targetMillis", 0);
+        if (targetMillis <= 0)
+            return null;
+        return new DifficultyRetargeter(targetMillis, Integer.getInteger("retarget.window", 8), 8);
+    }
+
+    /**
+     * Record how long a block took to mine.
+     *
+     * @param hashesTried  The number of hashes tried.
+     * @param elapsedNanos The time taken.
+     */
+    public synchronized void record(long hashesTried, long elapsedNanos) {
+        int slot = recorded % hashes.length;
+        hashes[slot] = hashesTried;
+        nanos[slot] = elapsedNanos;
+        recorded++;
+    }
+
+    /**
+     * Choose the difficulty of the next block.
+     *
+     * @param fallbackHashesPerSecond Hash rate to assume before any block has been recorded.
+     * @return The difficulty in leading zero bits.
+     */
+    public synchronized int nextDifficultyBits(long fallbackHashesPerSecond) {
+        double rate = fallbackHashesPerSecond;
+        int count = Math.min(recorded, hashes.length);
+        long totalHashes = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < count; i++) {
+            totalHashes += hashes[i];
+            totalNanos += nanos[i];
+        }
+        if (totalNanos > 0)
+            rate = totalHashes * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos;
+        if (rate <= 0)
+            return currentBits;
+
+        double hashesPerBlock = rate * targetMillis / 1000.0;
+        int bits = (int) Math.round(Math.log(Math.max(hashesPerBlock, 1)) / Math.log(2));
+        bits = Math.max(currentBits - MAX_STEP_BITS, Math.min(currentBits + MAX_STEP_BITS, bits));
+        currentBits = Math.max(MIN_BITS, Math.min(MAX_BITS, bits));
+        return currentBits;
+    }
+
+    /**
+     * Get the desired time to mine one block.
+     *
+     * @return The target in milliseconds.
+     */
+    public long getTargetMillis() {
+        return targetMillis;
+    }
+}
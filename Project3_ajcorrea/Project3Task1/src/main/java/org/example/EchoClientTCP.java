@@ -10,18 +10,41 @@ import com.google.gson.JsonParser;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 public class EchoClientTCP {
     static Socket clientSocket = null;
 
+    // Default number of requests allowed in flight at once in batch mode
+    static final int DEFAULT_WINDOW = 64;
+
+    /**
+     * Runs the interactive menu client, or a non-interactive batch client when invoked as
+     * {@code batch [script|-] [window]}. The script is read from the named file, or from
+     * stdin when it is "-" or omitted.
+     *
+     * @param args Command-line arguments.
+     */
     public static void main(String args[]) {
+        if (args.length > 0 && args[0].equals("batch")) {
+            String source = args.length > 1 ? args[1] : "-";
+            int window = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WINDOW;
+            runBatch(source, window);
+            return;
+        }
+
         // Arguments supply hostname
         Scanner sc = new Scanner(System.in);
         try {
             System.out.println("The TCP client is running.");
 
-            clientSocket = new Socket("localhost", 7777);
+            clientSocket = new Socket("localhost", Integer.getInteger("server.port", 7777));
 
             // To read from the server
             BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
@@ -40,7 +63,8 @@ public class EchoClientTCP {
                         "3. View the blockchain.\n" +
                         "4. Corrupt the chain.\n" +
                         "5. Hide the corruption by repairing the chain.\n" +
-                        "6. Exit");
+                        "6. Exit\n" +
+                        "7. View server metrics.");
 
                 option = sc.nextInt();
 
@@ -55,11 +79,17 @@ public class EchoClientTCP {
                         JsonObject jsonReply = new JsonParser().parse(reply).getAsJsonObject();
                         System.out.println("Current size of chain:  " + jsonReply.get("size"));
                         System.out.println("Difficulty of most recent block: " + jsonReply.get("diff"));
+                        System.out.println("Difficulty of most recent block in bits: " + jsonReply.get("diffBits"));
                         System.out.println("Total difficulty for all blocks:  " + jsonReply.get("totalDiff"));
                         System.out.println("Approximate hashes per second on this machine : " + jsonReply.get("hps"));
+                        System.out.println("Approximate hashes per second using all processors : " +
+                                jsonReply.get("hpsAllCores"));
                         System.out.println("Expected total hashes required for the whole chain: " +
                                 jsonReply.get("totalHashes"));
                         System.out.println("Nonce for most recent block:  " + jsonReply.get("recentNonce"));
+                        if (jsonReply.has("auditInvalid"))
+                            System.out.println("First invalid block found by the auditor: " +
+                                    jsonReply.get("auditInvalid"));
                         System.out.println("Chain hash:  " + jsonReply.get("chainHash") + "\n");
                         break;
                     }
@@ -113,6 +143,18 @@ public class EchoClientTCP {
                         break;
                     }
 
+                    // Server metrics
+                    case 7: {
+                        RequestMessage requestMessage = new RequestMessage(option);
+                        out.println(requestMessage.getRequestJson());
+                        out.flush();
+                        String reply = in.readLine();
+                        // Parsing response object from server as json object
+                        JsonObject jsonReply = JsonParser.parseString(reply).getAsJsonObject();
+                        System.out.println(jsonReply.get("metrics") + "\n");
+                        break;
+                    }
+
                     // Exit the program
                     case 6:
                         RequestMessage requestMessage = new RequestMessage(option);
@@ -135,5 +177,146 @@ public class EchoClientTCP {
             }
         }
     }
-}
 
+    /**
+     * Parse one line of a batch script into a request. Each line holds an op number followed by
+     * its arguments, the same values the interactive menu asks for:
+     * <pre>
+     * 0
+     * 1 &lt;difficulty&gt; &lt;transaction&gt;
+     * 2
+     * 3
+     * 4 &lt;index&gt; &lt;transaction&gt;
+     * 5
+     * 6
+     * 7
+     * 8 &lt;from&gt;
+     * 11 &lt;priority&gt; &lt;transaction&gt;
+     * 12 &lt;encodings&gt;
+     * </pre>
+     * An op 1 difficulty ending in 'b' (e.g. {@code 1 18b alice pays bob}) is taken as a number
+     * of leading zero bits rather than hex digits. Blank lines and lines starting with '#' are
+     * skipped.
+     *
+     * @param line The script line.
+     * @return The request to send, or null if the line holds no request.
+     */
+    static RequestMessage parseScriptLine(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#"))
+            return null;
+        String[] parts = trimmed.split("\\s+", 3);
+        int option = Integer.parseInt(parts[0]);
+        switch (option) {
+            case 1, 4, 11: {
+                if (parts.length < 3)
+                    throw new IllegalArgumentException("Op " + option + " needs a number and a transaction: " + line);
+                if (option == 1 && parts[1].endsWith("b")) {
+                    RequestMessage request = new RequestMessage(option, 0, parts[2]);
+                    request.setDifficultyBits(Integer.parseInt(parts[1].substring(0, parts[1].length() - 1)));
+                    return request;
+                }
+                return new RequestMessage(option, Integer.parseInt(parts[1]), parts[2]);
+            }
+            case 8: {
+                if (parts.length < 2)
+                    throw new IllegalArgumentException("Op 8 needs the index of the first block: " + line);
+                return new RequestMessage(option, Integer.parseInt(parts[1]));
+            }
+            case 12: {
+                if (parts.length < 2)
+                    throw new IllegalArgumentException("Op 12 needs the encodings to accept: " + line);
+                return new RequestMessage(option, parts[1]);
+            }
+            case 0, 2, 3, 5, 6, 7:
+                return new RequestMessage(option);
+            default:
+                throw new IllegalArgumentException("Unknown op in script: " + line);
+        }
+    }
+
+    /**
+     * Send every request of a script over one connection without waiting for each reply.
+     * Up to {@code window} requests are in flight at once; a reader thread matches replies
+     * to requests by their echoed id and prints them as they arrive.
+     *
+     * @param source The script file name, or "-" for stdin.
+     * @param window Maximum number of requests awaiting a reply (1 gives lock-step behaviour).
+     */
+    static void runBatch(String source, int window) {
+        Map<Long, String> pending = new ConcurrentHashMap<>();
+        Semaphore inFlight = new Semaphore(window);
+        long sent = 0;
+        long start = System.currentTimeMillis();
+
+        try (BufferedReader script = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+             Socket socket = new Socket("localhost", Integer.getInteger("server.port", 7777))) {
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+
+            // Replies are consumed on their own thread so the writer never stalls on a full socket buffer
+            Thread reader = new Thread(() -> {
+                try {
+                    String reply;
+                    while ((reply = in.readLine()) != null) {
+                        JsonObject jsonReply = JsonParser.parseString(reply).getAsJsonObject();
+                        String request = pending.remove(jsonReply.get("id").getAsLong());
+                        if (jsonReply.has("encoding"))
+                            System.out.println(request + " -> (" + jsonReply.get("encoding").getAsString() + ", " +
+                                    reply.length() + " bytes) " + Compression.decode(jsonReply));
+                        else
+                            System.out.println(request + " -> " + reply);
+                        inFlight.release();
+                    }
+                } catch (IOException e) {
+                    // Socket closed once the batch is done
+                } finally {
+                    // Unblock the writer if the server went away with requests still pending
+                    inFlight.release(window);
+                }
+            }, "batch-reader");
+            reader.setDaemon(true);
+            reader.start();
+
+            String line;
+            while ((line = script.readLine()) != null) {
+                RequestMessage requestMessage = parseScriptLine(line);
+                if (requestMessage == null)
+                    continue;
+                requestMessage.setId(sent);
+                // The server ends the connection on op 6 without replying, so there is nothing to wait for
+                if (requestMessage.getRequestJson().get("op").getAsInt() == 6) {
+                    out.flush();
+                    inFlight.acquire(window);
+                    inFlight.release(window);
+                    out.println(requestMessage.getRequestJson());
+                    out.flush();
+                    sent++;
+                    break;
+                }
+                inFlight.acquire();
+                pending.put(sent, line.trim());
+                out.println(requestMessage.getRequestJson());
+                // Flush only when the script has no more input ready or the window is full,
+                // so bursts of requests share TCP segments
+                if (!script.ready() || inFlight.availablePermits() == 0)
+                    out.flush();
+                sent++;
+            }
+            out.flush();
+
+            // Wait for the outstanding replies before closing the connection
+            inFlight.acquire(window);
+            inFlight.release(window);
+            System.out.println("Sent " + sent + " requests in " + (System.currentTimeMillis() - start) +
+                    " milliseconds");
+        } catch (IOException e) {
+            System.out.println("IO Exception:" + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
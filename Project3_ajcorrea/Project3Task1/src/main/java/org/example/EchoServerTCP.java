@@ -5,175 +5,533 @@ package org.example;
 
 // Code Reference: EchoServerTCP.java from Coulouris text
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonArray;
 
+import javax.management.JMException;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
-import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Serves the blockchain to clients as JSON requests and replies over TCP, one request object
+ * per "op", pipelined on a connection and answered in order with the request's id echoed.
+ * <pre>
+ * 0   status                      7   metrics
+ * 1   mine and add a block        8   blocks from an index (peers)
+ * 2   verify the chain            9   block mined by a peer
+ * 3   view the chain              10  block headers from an index (peers)
+ * 4   corrupt a block             11  submit a transaction to the mempool
+ * 5   repair the chain            12  negotiate compression of large replies
+ * 6   exit
+ * </pre>
+ * Op 6 gets no reply. It ends only the connection that sent it, as other clients share the
+ * server; the whole server stops, once no change to the chain is under way, only when it runs
+ * with -Dserver.allowShutdown=true. Unknown ops are answered with an error.
+ */
 public class EchoServerTCP {
+    // Console output on the request path goes through the async logger so it never blocks a reply
+    static final AsyncLogger log = AsyncLogger.fromSystemProperties();
 
-    public static void main(String args[]) {
+    // Status reply serialized for the chain version, hash rates and audit result it describes;
+    // replaced as a whole, as status may be read without the chain lock
+    private static volatile CachedStatus status;
+
+    // Chooses the difficulty of new blocks when -Dretarget.targetMillis is set, otherwise null
+    static final DifficultyRetargeter retargeter = DifficultyRetargeter.fromSystemProperties();
+
+    // Copies from and announces to other servers when -Dpeers is set, otherwise null
+    static PeerReplicator replicator;
+
+    // Verifies the chain in the background when -Daudit.hashesPerSecond is set, otherwise null
+    static ChainAuditor auditor;
+
+    // Makes changes durable when -Dwal.file is set, otherwise null
+    static WriteAheadLog wal;
+
+    // Sends large op 3 views from disk when -Dexport.file is set, otherwise null
+    static ChainExport export;
 
-        Socket clientSocket = null;
+    // Transactions submitted with op 11, put into blocks in the background
+    static final Mempool mempool = new Mempool(Integer.getInteger("mempool.capacity", 100000));
+
+    public static void main(String args[]) {
 
         System.out.println("Blockchain server running");
         try {
-            Scanner sc = new Scanner(System.in);
-            int serverPort = 7777;  // Read user input
-            ServerSocket listenSocket = new ServerSocket(serverPort);
+            int serverPort = Integer.getInteger("server.port", 7777);  // Read user input
+            // Opened through a channel so client sockets have channels for ChainExport
+            ServerSocket listenSocket = ServerSocketChannel.open().bind(new InetSocketAddress(serverPort)).socket();
 
-            /*
-             * Block waiting for a new connection request from a client.
-             * When the request is received, "accept" it, and the rest
-             * the tcp protocol handshake will then take place, making
-             * the socket ready for reading and writing.
-             */
-            clientSocket = listenSocket.accept();
-            // If we get here, then we are now connected to a client.
+            BlockChain chain = new BlockChain();
+
+            // Pick up where the last run left off, if it kept a log
+            wal = WriteAheadLog.fromSystemProperties();
+            if (wal != null) {
+                long records = wal.replay(chain, mempool);
+                System.out.println("Replayed " + records + " log records, chain size " + chain.getChainSize());
+                chain.setWriteAheadLog(wal);
+                mempool.setWriteAheadLog(wal);
+                // However the server exits, sync what was logged so nothing acknowledged is lost
+                Runtime.getRuntime().addShutdownHook(new Thread(wal::close, "wal-close"));
+            }
+
+            export = ChainExport.fromSystemProperties(chain);
+
+            // Join the peers' chain if one of them is up, otherwise start a new one
+            replicator = PeerReplicator.fromSystemProperties(chain);
+            if (chain.getChainSize() == 0 && (replicator == null || !replicator.bootstrap())) {
+                Block genesis = new Block(0, chain.getTime(), "Genesis", 2);
+                genesis.setPreviousHash("");
+                // addBlock mines it
+                chain.addBlock(genesis);
+            }
+
+            // Measure the hash rate in the background so clients are served straight away
+            HashRateCalibrator.startFromSystemProperties(chain);
+
+            // Let JMX tools watch the chain and control mining
+            BlockChainMonitor.register(chain);
+
+            BlockAssembler.startFromSystemProperties(chain, mempool);
+
+            auditor = ChainAuditor.startFromSystemProperties(chain);
+
+            // Each connected client is served on its own thread; they all share one chain
+            ExecutorService clientThreads = Executors.newCachedThreadPool();
+
+            while (true) {
+                /*
+                 * Block waiting for a new connection request from a client.
+                 * When the request is received, "accept" it, and the rest
+                 * the tcp protocol handshake will then take place, making
+                 * the socket ready for reading and writing.
+                 */
+                Socket clientSocket = listenSocket.accept();
+                // If we get here, then we are now connected to a client.
+                clientThreads.execute(() -> serveClient(clientSocket, chain));
+            }
 
-            // Set up "in" to read from the client socket
-            Scanner in;
-            in = new Scanner(clientSocket.getInputStream());
+            // Handle exceptions
+        } catch (IOException e) {
+            System.out.println("IO Exception:" + e.getMessage());
+        } catch (NoSuchAlgorithmException | JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Serve one client connection until the client closes it.
+     *
+     * @param clientSocket The connected client socket.
+     * @param chain        The blockchain shared by all connections.
+     */
+    static void serveClient(Socket clientSocket, BlockChain chain) {
+        try {
+            // Set up "in" to read requests from the client socket
+            RequestDecoder in = new RequestDecoder(clientSocket.getInputStream());
 
             // Set up "out" to write to the client socket
             PrintWriter out;
             out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream())));
+            // Set by op 12 when the client asks for large replies to be compressed
+            Compression compression = null;
 
             /*
-             * Forever,
-             *   read a line from the socket
+             * Until the client disconnects,
+             *   read a request from the socket
              *   print it to the console
-             *   echo it (i.e. write it) back to the client
+             *   write the response back to the client
              */
+            log.info("We have a visitor");
+            // Requests may be pipelined, so keep reading until the client closes the connection
+            RequestDecoder.Request request;
+            while ((request = in.next()) != null) {
+                long start = System.nanoTime();
+                BlockchainEvents.Request requestEvent = new BlockchainEvents.Request();
+                requestEvent.begin();
+                int op = request.op;
+                ResponseMessage responseMessage = null;
+                // Held from the export file's catch-up until its send is done
+                ChainExport.View view = null;
+                int chainLength = -1;
+                long logged = wal == null ? 0 : wal.getWritten();
+                long bytesWritten = 0;
+                try {
+                    try {
+                        if (op == 6) {
+                            // Other clients share the server, so exit only ends this connection
+                            // unless -Dserver.allowShutdown=true lets a client stop the whole server
+                            if (Boolean.getBoolean("server.allowShutdown"))
+                                shutdown(chain);
+                            break;
+                        } else if (op == 11) {
+                            // Mempool submissions never touch the chain, so they skip the chain lock
+                            responseMessage = handleRequest(request, chain);
+                        } else if (op == 12) {
+                            // Compression belongs to the connection rather than the chain
+                            compression = Compression.negotiate(request.encodings);
+                            responseMessage = new ResponseMessage(op, compression == null ? "none" : compression.getEncoding());
+                        } else if (op == 3 && export != null) {
+                            // Large views are sent from the export file, caught up under the lock
+                            // and sent outside it
+                            synchronized (chain) {
+                                view = exportView();
+                                if (view == null)
+                                    responseMessage = handleRequest(request, chain);
+                                chainLength = chain.getChainSize();
+                            }
+                        } else if (chain.getSnapshot() != null && (op == 0 || op == 2 || op == 3)) {
+                            // Reads work on the latest snapshot, so they never wait for mining or a
+                            // repair
+                            responseMessage = handleRequest(request, chain);
+                            chainLength = chain.getSnapshot().getChainSize();
+                        } else {
+                            // Operations on the chain are not thread safe, so connections take turns
+                            synchronized (chain) {
+                                responseMessage = handleRequest(request, chain);
+                                chainLength = chain.getChainSize();
+                            }
+                        }
+                    } catch (UncheckedIOException e) {
+                        // The write-ahead log could not take a change: drop the connection below
+                        throw e;
+                    } catch (RuntimeException e) {
+                        // A request with a bad field, e.g. an index past the end of the chain,
+                        // is answered with the error and the connection carries on
+                        log.warn("Request " + op + " failed: " + e);
+                        responseMessage = new ResponseMessage(op, "Error: " + e.getMessage());
+                    }
+                    // Do not acknowledge a change before it is durable; waiting outside the chain
+                    // lock lets the changes of other connections share the same sync. If the sync
+                    // fails the connection is dropped without a reply
+                    if (wal != null && wal.getWritten() > logged)
+                        wal.awaitDurable(wal.getWritten());
 
-            BlockChain chain = new BlockChain();
-            int option = 0;
+                    if (responseMessage != null)
+                        // Echo the request id so pipelining clients can match the reply
+                        responseMessage.setId(request.id);
+                    // Replies other than through out go straight to the socket; out holds
+                    // nothing, as every reply is flushed
+                    if (view != null) {
+                        if (compression != null && compression.isWorthwhile(view.getLength()))
+                            bytesWritten = view.send(clientSocket.getOutputStream(), compression, op, request.id);
+                        else
+                            bytesWritten = view.send(clientSocket.getChannel(), op, request.id);
+                        log.info("Sent " + bytesWritten + " bytes of chain from the export file");
+                    } else if (responseMessage != null) {
+                        // Serialize once for both the console and the socket
+                        String response = responseMessage.toJsonString();
+                        if (log.isEnabled(AsyncLogger.Level.INFO) && log.sample(op))
+                            log.info("Setting response to: " + log.truncate(response));
+                        BlockchainEvents.ResponseWrite writeEvent = new BlockchainEvents.ResponseWrite();
+                        writeEvent.begin();
+                        long compressedBytes = -1;
+                        if (compression != null && compression.isWorthwhile(response.length()))
+                            compressedBytes = compression.send(clientSocket.getOutputStream(), response, request.id);
+                        else {
+                            out.println(response);
+                            out.flush();
+                        }
+                        writeEvent.end();
+                        if (writeEvent.shouldCommit() || requestEvent.isEnabled()) {
+                            bytesWritten = compressedBytes >= 0 ? compressedBytes :
+                                    response.getBytes(StandardCharsets.UTF_8).length + 1;
+                            writeEvent.op = op;
+                            writeEvent.bytesWritten = bytesWritten;
+                            writeEvent.commit();
+                        }
+                    }
+                } finally {
+                    if (view != null)
+                        view.release();
+                }
+                Metrics.recordRequest(op, System.nanoTime() - start);
+                requestEvent.end();
+                if (requestEvent.shouldCommit()) {
+                    requestEvent.op = op;
+                    requestEvent.requestId = request.id == null ? null : request.id.toString();
+                    requestEvent.chainLength = chainLength;
+                    requestEvent.bytesWritten = bytesWritten;
+                    requestEvent.commit();
+                }
+            }
 
-            Block genesis = new Block(0, chain.getTime(), "Genesis", 2);
-            genesis.setPreviousHash("");
-            genesis.proofOfWork();
+            // Handle exceptions
+        } catch (IOException | UncheckedIOException e) {
+            // UncheckedIOException comes from a change the write-ahead log could not take
+            log.warn("IO Exception:" + e.getMessage());
+            // If quitting (typically by you sending quit signal) clean up sockets
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                // Ignore exception on close
+            }
+        }
+    }
 
-            chain.computeHashesPerSecond();
-            chain.addBlock(genesis);
+    /**
+     * Bring the export file up to date for an op 3 view, if the chain is long enough to be sent
+     * from it. Call with the chain lock held.
+     *
+     * @return The view, to be released once sent, or null to build the view on the heap.
+     */
+    static ChainExport.View exportView() {
+        if (!export.isWorthwhile())
+            return null;
+        try {
+            return export.catchUp();
+        } catch (IOException e) {
+            log.warn("Chain export failed: " + e.getMessage());
+            return null;
+        }
+    }
 
-            System.out.println("We have a visitor");
-            while (true) {
-                JsonObject clientReply = new JsonParser().parse(in.nextLine()).getAsJsonObject();
-                option = clientReply.get("op").getAsInt();
-                switch (option) {
-                    // Status of blockchain
-                    case 0: {
-                        ResponseMessage responseMessage = new ResponseMessage(option,
-                                chain.getChainSize(), chain.getLatestBlock().getDifficulty(),
-                                chain.getTotalDifficulty(), chain.getHashesPerSecond(), chain.getTotalExpectedHashes(),
-                                chain.getLatestBlock().getNonce(), chain.getChainHash());
-                        System.out.println("Response : " + responseMessage.getResponseJson());
-                        out.println(responseMessage.getResponseJson());
-                        out.flush();
-                        break;
-                    }
+    /**
+     * Stop the server for op 6 once no change to the chain is under way.
+     *
+     * @param chain The blockchain shared by all connections.
+     */
+    static void shutdown(BlockChain chain) {
+        log.info("Shutting down at a client's request");
+        synchronized (chain) {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Carry out a single client request against the chain.
+     *
+     * @param request The decoded request.
+     * @param chain   The blockchain to operate on.
+     * @return The response to send, or null if the operation has no reply.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    static ResponseMessage handleRequest(RequestDecoder.Request request, BlockChain chain)
+            throws NoSuchAlgorithmException {
+        int option = request.op;
+        ResponseMessage responseMessage = null;
+        // Refused up front, as a block or transaction without data could not be replayed
+        String missing = request.missingField();
+        if (missing != null)
+            return new ResponseMessage(option, "Missing field " + missing);
+        switch (option) {
+            // Status of blockchain; reads a snapshot without the chain lock when snapshots are kept
+            case 0: {
+                ChainView view = chain.getView();
+                // Status only changes with the chain, the hash rates or the audit result, so rebuild
+                // it only then
+                int audit = auditor == null ? -1 : auditor.getFirstInvalid();
+                int hashesPerSecond = chain.getHashesPerSecond();
+                long hashesPerSecondAllCores = chain.getHashesPerSecondAllCores();
+                CachedStatus cached = status;
+                if (cached == null || cached.version != view.getVersion() || cached.audit != audit ||
+                        cached.hashesPerSecond != hashesPerSecond ||
+                        cached.hashesPerSecondAllCores != hashesPerSecondAllCores) {
+                    String json = new ResponseMessage(option,
+                            view.getChainSize(), view.getLatestBlock().getDifficulty(),
+                            view.getTotalDifficulty(), hashesPerSecond,
+                            hashesPerSecondAllCores, view.getTotalExpectedHashes(),
+                            view.getLatestBlock().getNonce(), view.getChainHash(),
+                            view.getLatestBlock().getDifficultyBits(),
+                            auditor == null ? null : audit).toJsonString();
+                    cached = new CachedStatus(view.getVersion(), audit, hashesPerSecond,
+                            hashesPerSecondAllCores, json);
+                    status = cached;
+                }
+                responseMessage = new ResponseMessage(cached.json);
+                break;
+            }
 
-                    // Adding block to blockchain
-                    case 1: {
-                        System.out.println("Adding a block");
-                        int difficulty = clientReply.get("difficulty").getAsInt();
-                        String transaction = clientReply.get("transaction").getAsString();
-                        Timestamp start = chain.getTime();
-                        Block newBlock = new Block(chain.getChainSize(), chain.getTime(), transaction, difficulty);
-                        newBlock.setPreviousHash(chain.getChainHash());
-                        newBlock.proofOfWork();
-                        chain.addBlock(newBlock);
-                        Timestamp end = chain.getTime();
-                        ResponseMessage responseMessage = new ResponseMessage(option, "Total execution " +
-                                "time to add this block was  " + (end.getTime() - start.getTime()) + " milliseconds");
-                        System.out.println("Setting response to : " + responseMessage.getResponseJson());
-                        out.println(responseMessage.getResponseJson());
-                        out.flush();
+            // Adding block to blockchain
+            case 1: {
+                log.info("Adding a block");
+                int difficulty = request.difficulty;
+                String transaction = request.transaction;
+                // Mining holds the chain lock, so a difficulty that could never be met is refused
+                if (retargeter == null) {
+                    try {
+                        Block.checkDifficultyBits(request.difficultyBits >= 0 ? request.difficultyBits :
+                                4L * difficulty);
+                    } catch (IllegalArgumentException e) {
+                        responseMessage = new ResponseMessage(option, e.getMessage());
                         break;
                     }
-
-                    // Verify blockchain
-                    case 2: {
-                        System.out.println("Verifying entire chain");
-                        Timestamp start = chain.getTime();
-                        System.out.println("Chain verification: " + chain.isChainValid());
-                        Timestamp end = chain.getTime();
-                        ResponseMessage responseMessage = new ResponseMessage(option, "Total execution " +
-                                "time to verify the chain was  " + (end.getTime() - start.getTime()) + " milliseconds");
-                        System.out.println("Setting response to: " + responseMessage.getResponseJson());
-                        out.println(responseMessage.getResponseJson());
-                        out.flush();
+                }
+                Timestamp start = chain.getTime();
+                Block newBlock = new Block(chain.getChainSize(), chain.getTime(), transaction, difficulty);
+                // The retargeter overrides the client's difficulty; otherwise bits may be asked for directly
+                if (retargeter != null)
+                    newBlock.setDifficultyBits(retargeter.nextDifficultyBits(
+                            (long) chain.getHashesPerSecond() * Miner.getThreads()));
+                else if (request.difficultyBits >= 0)
+                    newBlock.setDifficultyBits(request.difficultyBits);
+                newBlock.setPreviousHash(chain.getChainHashValue());
+                try {
+                    long miningStart = System.nanoTime();
+                    newBlock.proofOfWork();
+                    if (retargeter != null)
+                        retargeter.record(newBlock.getNonce().longValue() + 1, System.nanoTime() - miningStart);
+                    // Already mined, so appended as it is; addBlock would mine it a second time
+                    String appended = chain.appendMinedBlock(newBlock);
+                    if (!"TRUE".equals(appended)) {
+                        responseMessage = new ResponseMessage(option, appended);
                         break;
                     }
+                    Metrics.blocksMined.increment();
+                    if (replicator != null)
+                        replicator.announce(newBlock);
+                } catch (CancellationException e) {
+                    // Mining was cancelled through JMX; the chain is unchanged
+                    responseMessage = new ResponseMessage(option, e.getMessage());
+                    break;
+                }
+                Timestamp end = chain.getTime();
+                responseMessage = new ResponseMessage(option, "Total execution " +
+                        "time to add this block was  " + (end.getTime() - start.getTime()) + " milliseconds" +
+                        " at " + newBlock.getDifficultyBits() + " bits of difficulty");
+                break;
+            }
 
-                    // View blockchain
-                    case 3: {
-                        System.out.println("View the Blockchain");
-                        ResponseMessage responseMessage = new ResponseMessage(option, chain.toString());
-                        System.out.println("Setting response to: " + responseMessage.getResponseJson());
-                        out.println(responseMessage.getResponseJson());
-                        out.flush();
-                        break;
+            // Verify blockchain; likewise from a snapshot
+            case 2: {
+                log.info("Verifying entire chain");
+                Timestamp start = chain.getTime();
+                String valid = chain.getView().isChainValid();
+                log.info("Chain verification: " + valid);
+                Timestamp end = chain.getTime();
+                responseMessage = new ResponseMessage(option, "Total execution " +
+                        "time to verify the chain was  " + (end.getTime() - start.getTime()) + " milliseconds");
+                break;
+            }
 
-                    }
+            // View blockchain; likewise from a snapshot, when not sent from the export file
+            case 3: {
+                log.info("View the Blockchain");
+                responseMessage = new ResponseMessage(option, chain.getView().toString());
+                break;
 
-                    // Corrupt blockchain
-                    case 4: {
-                        System.out.println("Corrupt the Blockchain");
-                        int index = clientReply.get("index").getAsInt();
-                        String transaction = clientReply.get("transaction").getAsString();
-                        chain.getBlock(index).setData(transaction);
-                        ResponseMessage responseMessage = new ResponseMessage(option, "Block " + index +
-                                " now holds " + transaction);
-                        System.out.println("Setting response to: " + responseMessage.getResponseJson());
-                        out.println(responseMessage.getResponseJson());
-                        out.flush();
-                        break;
-                    }
+            }
 
-                    //  Repair blockchain
-                    case 5: {
-                        System.out.println("Repairing the entire chain");
-                        Timestamp start = chain.getTime();
-                        chain.repairChain();
-                        Timestamp end = chain.getTime();
-                        ResponseMessage responseMessage = new ResponseMessage(option, "Total execution " +
-                                "time required to repair the chain was " + (end.getTime() - start.getTime()) +
-                                " milliseconds");
-                        System.out.println("Setting response to: " + responseMessage.getResponseJson());
-                        out.println(responseMessage.getResponseJson());
-                        out.flush();
-                        break;
-                    }
+            // Corrupt blockchain
+            case 4: {
+                log.info("Corrupt the Blockchain");
+                int index = request.index;
+                String transaction = request.transaction;
+                chain.setBlockData(index, transaction);
+                responseMessage = new ResponseMessage(option, "Block " + index +
+                        " now holds " + transaction);
+                break;
+            }
 
-                    // Exit the program
-                    case 6:
-                        System.exit(0);
+            //  Repair blockchain
+            case 5: {
+                log.info("Repairing the entire chain");
+                Timestamp start = chain.getTime();
+                try {
+                    chain.repairChain();
+                } catch (CancellationException e) {
+                    // Mining was cancelled through JMX; blocks after this one are still unrepaired
+                    responseMessage = new ResponseMessage(option, "Repair stopped: " + e.getMessage());
+                    break;
                 }
+                Timestamp end = chain.getTime();
+                if (auditor != null)
+                    auditor.restart();
+                responseMessage = new ResponseMessage(option, "Total execution " +
+                        "time required to repair the chain was " + (end.getTime() - start.getTime()) +
+                        " milliseconds");
+                break;
             }
 
-            // Handle exceptions
-        } catch (IOException e) {
-            System.out.println("IO Exception:" + e.getMessage());
-            // If quitting (typically by you sending quit signal) clean up sockets
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        } finally {
-            try {
-                if (clientSocket != null) {
-                    clientSocket.close();
+            // Server metrics
+            case 7: {
+                responseMessage = new ResponseMessage(option, Metrics.toJson());
+                break;
+            }
+
+            // Blocks or block headers from an index onwards, optionally limited to a count,
+            // for a peer copying the chain
+            case 8, 10: {
+                // A count is optional, marked by -1, but any other negative count is a mistake
+                if (request.count < -1) {
+                    responseMessage = new ResponseMessage(option, "Count must not be negative");
+                    break;
                 }
-            } catch (IOException e) {
-                // Ignore exception on close
+                int to = chain.getChainSize();
+                int from = Math.max(0, Math.min(request.from, to));
+                if (request.count >= 0)
+                    to = (int) Math.min(to, (long) from + request.count);
+                JsonArray blocks = new JsonArray();
+                for (int i = from; i < to; i++)
+                    blocks.add(option == 8 ? chain.getBlock(i).toJson() : chain.getBlock(i).toHeaderJson());
+                responseMessage = new ResponseMessage(option, option == 8 ? "blocks" : "headers", blocks);
+                break;
+            }
+
+            // Block mined by a peer
+            case 9: {
+                Block block = Block.fromJson(request.block);
+                String result;
+                if (block.getIndex() > chain.getChainSize())
+                    result = "MISSING";
+                else if (block.getIndex() < chain.getChainSize() &&
+                        chain.getBlock(block.getIndex()).computeHash().equals(block.computeHash()))
+                    result = "DUPLICATE";
+                else
+                    result = chain.appendMinedBlock(block);
+                if (result.equals("TRUE"))
+                    Metrics.blocksReplicated.increment();
+                log.info("Block " + block.getIndex() + " from a peer: " + result);
+                responseMessage = new ResponseMessage(option, result, chain.getChainSize());
+                break;
+            }
+
+            // Transaction for the mempool; called without the chain lock
+            case 11: {
+                Mempool.Result result = mempool.submit(request.transaction, request.priority);
+                responseMessage = new ResponseMessage(option, result.name(), mempool.size());
+                break;
             }
+
+            // Answered so a pipelining client is not left waiting for a reply that never comes
+            default:
+                responseMessage = new ResponseMessage(option, "Unknown op " + option);
+        }
+        return responseMessage;
+    }
+
+    /**
+     * A serialized status reply and what it was built from.
+     */
+    private static final class CachedStatus {
+        final long version;
+        final int audit;
+        final int hashesPerSecond;
+        final long hashesPerSecondAllCores;
+        final String json;
+
+        CachedStatus(long version, int audit, int hashesPerSecond, long hashesPerSecondAllCores,
+                     String json) {
+            this.version = version;
+            this.audit = audit;
+            this.hashesPerSecond = hashesPerSecond;
+            this.hashesPerSecondAllCores = hashesPerSecondAllCores;
+            this.json = json;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,157 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+/**
+ * An immutable SHA-256 hash held as four longs, most significant first. Comparing two hashes
+ * compares four longs instead of 64 characters, and the leading zero bits are counted straight
+ * from the first words. Hex text is only produced where a hash leaves the program, in JSON and
+ * in the string a block hashes.
+ */
+public final class Hash {
+    public static final int BYTES = 32;
+
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
+
+    private Hash(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /**
+     * Wrap a digest.
+     *
+     * @param bytes  Array holding the 32 hash bytes.
+     * @param offset Position of the first byte.
+     * @return The hash.
+     */
+    public static Hash of(byte[] bytes, int offset) {
+        return new Hash(word(bytes, offset), word(bytes, offset + 8), word(bytes, offset + 16),
+                word(bytes, offset + 24));
+    }
+
+    /**
+     * Wrap a digest.
+     *
+     * @param bytes The 32 hash bytes.
+     * @return The hash.
+     */
+    public static Hash of(byte[] bytes) {
+        if (bytes.length != BYTES)
+            throw new IllegalArgumentException("A hash has " + BYTES + " bytes, not " + bytes.length);
+        return of(bytes, 0);
+    }
+
+    /**
+     * Parse 64 lowercase hex digits, so that toHex gives back the same text.
+     *
+     * @param hex The hash as hex.
+     * @return The hash.
+     * @throws IllegalArgumentException If the text is not 64 lowercase hex digits.
+     */
+    public static Hash fromHex(String hex) {
+        if (hex.length() != 2 * BYTES)
+            throw new IllegalArgumentException("Not a 64-digit hex hash: " + hex);
+        long[] words = new long[4];
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : -1;
+            if (digit < 0)
+                throw new IllegalArgumentException("Not a 64-digit hex hash: " + hex);
+            words[i / 16] = (words[i / 16] << 4) | digit;
+        }
+        return new Hash(words[0], words[1], words[2], words[3]);
+    }
+
+    /**
+     * Check whether the hash starts with at least the given number of zero bits.
+     *
+     * @param bits The number of leading zero bits required.
+     * @return True if the first {@code bits} bits are zero.
+     */
+    public boolean hasLeadingZeroBits(int bits) {
+        return leadingZeroBits() >= bits;
+    }
+
+    /**
+     * Count the zero bits before the first one bit.
+     *
+     * @return The number of leading zero bits, 256 for an all-zero hash.
+     */
+    public int leadingZeroBits() {
+        if (w0 != 0)
+            return Long.numberOfLeadingZeros(w0);
+        if (w1 != 0)
+            return 64 + Long.numberOfLeadingZeros(w1);
+        if (w2 != 0)
+            return 128 + Long.numberOfLeadingZeros(w2);
+        return 192 + Long.numberOfLeadingZeros(w3);
+    }
+
+    /**
+     * Copy the hash into an array.
+     *
+     * @param bytes  The array to write to.
+     * @param offset Position of the first byte.
+     */
+    public void copyTo(byte[] bytes, int offset) {
+        putWord(bytes, offset, w0);
+        putWord(bytes, offset + 8, w1);
+        putWord(bytes, offset + 16, w2);
+        putWord(bytes, offset + 24, w3);
+    }
+
+    /**
+     * Get the hash as lowercase hex, as BlockHelper.bytesToHex writes it.
+     *
+     * @return 64 hex digits.
+     */
+    public String toHex() {
+        char[] hex = new char[2 * BYTES];
+        long[] words = {w0, w1, w2, w3};
+        for (int i = 0; i < hex.length; i++)
+            hex[i] = Character.forDigit((int) (words[i / 16] >>> (60 - 4 * (i % 16))) & 0xf, 16);
+        return new String(hex);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof Hash))
+            return false;
+        Hash hash = (Hash) other;
+        return w0 == hash.w0 && w1 == hash.w1 && w2 == hash.w2 && w3 == hash.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        // The words are already uniformly distributed, so any of them would do
+        return Long.hashCode(w3);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+
+    private static long word(byte[] bytes, int offset) {
+        long word = 0;
+        for (int i = 0; i < 8; i++)
+            word = (word << 8) | (bytes[offset + i] & 0xff);
+        return word;
+    }
+
+    private static void putWord(byte[] bytes, int offset, long word) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) word;
+            word >>>= 8;
+        }
+    }
+}
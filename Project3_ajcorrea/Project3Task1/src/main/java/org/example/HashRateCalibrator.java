@@ -0,0 +1,184 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast this machine hashes block headers, in the background, and publishes the
+ * result to the chain for op 0. The measured input has the same shape as the string
+ * Block.calculateHash digests (index, timestamp, transaction, 64-character previous hash,
+ * nonce and difficulty) and its digest is checked for leading zero bits the same way. Each
+ * round warms up first, then measures one thread alone and then every available processor
+ * at once.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Dcalibration.warmupMillis=500     warmup before each round
+ * -Dcalibration.measureMillis=1000   length of each measurement
+ * -Dcalibration.periodSeconds=600    time between rounds; 0 calibrates once
+ * </pre>
+ */
+public class HashRateCalibrator {
+    // Keeps the results observable so the JIT cannot drop the hashing
+    static volatile int sink;
+
+    private final BlockChain chain;
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hash-rate-calibrator");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Constructor for a calibrator that publishes to the given chain.
+     *
+     * @param chain         The chain whose hash rates are updated.
+     * @param warmupMillis  Warmup before each round.
+     * @param measureMillis Length of each measurement.
+     */
+    public HashRateCalibrator(BlockChain chain, long warmupMillis, long measureMillis) {
+        this.chain = chain;
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    /**
+     * Build a calibrator from the calibration.* system properties and start it.
+     *
+     * @param chain The chain whose hash rates are updated.
+     * @return The running calibrator.
+     */
+    public static HashRateCalibrator startFromSystemProperties(BlockChain chain) {
+        HashRateCalibrator calibrator = new HashRateCalibrator(chain,
+                Long.getLong("calibration.warmupMillis", 500),
+                Long.getLong("calibration.measureMillis", 1000));
+        calibrator.start(Long.getLong("calibration.periodSeconds", 600));
+        return calibrator;
+    }
+
+    /**
+     * Calibrate now in the background, then again every period.
+     *
+     * @param periodSeconds Time between rounds; 0 or less calibrates once.
+     */
+    public void start(long periodSeconds) {
+        if (periodSeconds > 0)
+            scheduler.scheduleWithFixedDelay(this::calibrateQuietly, 0, periodSeconds, TimeUnit.SECONDS);
+        else
+            scheduler.execute(this::calibrateQuietly);
+    }
+
+    /**
+     * Stop scheduling further rounds.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Run one round and publish the rates to the chain.
+     *
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     * @throws InterruptedException     If interrupted while measuring.
+     */
+    public void calibrate() throws NoSuchAlgorithmException, InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        measure(processors, warmupMillis);
+        long singleThread = measure(1, measureMillis);
+        long allCores = processors == 1 ? singleThread : measure(processors, measureMillis);
+        chain.setHashesPerSecond((int) Math.min(Integer.MAX_VALUE, singleThread), allCores);
+    }
+
+    private void calibrateQuietly() {
+        try {
+            calibrate();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hash header-shaped input on several threads at once for a fixed time.
+     *
+     * @param threads Number of threads hashing together.
+     * @param millis  How long to hash for.
+     * @return Hashes per second summed over all threads.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     * @throws InterruptedException     If interrupted while measuring.
+     */
+    static long measure(int threads, long millis) throws NoSuchAlgorithmException, InterruptedException {
+        // Lowest priority, like the scheduler, so calibration gives way to mining for requests
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "hash-rate-measure");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                counts.add(pool.submit((Callable<Long>) () -> hashUntil(thread, deadline)));
+            }
+            long start = System.nanoTime();
+            long total = 0;
+            for (Future<Long> count : counts)
+                total += count.get();
+            long elapsed = Math.max(1, System.nanoTime() - start);
+            return total * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof NoSuchAlgorithmException)
+                throw (NoSuchAlgorithmException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Hash successive headers until the deadline, as Block.calculateHash does during mining.
+     *
+     * @return The number of hashes computed.
+     */
+    private static long hashUntil(int thread, long deadline) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        // Representative header fields; only the nonce changes between hashes, as in mining
+        String prefix = String.valueOf(100000 + thread) + new Timestamp(System.currentTimeMillis()) +
+                "alice pays bob 10.00 for invoice 2024-000123 (calibration)" +
+                "00a0e939d359f44475b7d9bfeeff666762c9bd8d9e88d938a85cdcb5afe7a038";
+        long count = 0;
+        long nonce = 1_000_000L;
+        int last = 0;
+        while (true) {
+            for (int i = 0; i < 256; i++) {
+                String header = prefix + nonce++ + 4;
+                last ^= Hash.of(md.digest(header.getBytes(StandardCharsets.UTF_8))).leadingZeroBits();
+            }
+            count += 256;
+            if (System.nanoTime() >= deadline) {
+                sink = last;
+                return count;
+            }
+        }
+    }
+}
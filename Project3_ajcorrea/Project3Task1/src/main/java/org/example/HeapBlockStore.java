@@ -0,0 +1,34 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every block as a heap object in a list. get returns the stored block itself.
+ */
+public class HeapBlockStore implements BlockStore {
+    private final List<Block> blockList = new ArrayList<>();
+
+    @Override
+    public int size() {
+        return blockList.size();
+    }
+
+    @Override
+    public Block get(int i) {
+        return blockList.get(i);
+    }
+
+    @Override
+    public void add(Block block) {
+        blockList.add(block);
+    }
+
+    @Override
+    public void set(int i, Block block) {
+        blockList.set(i, block);
+    }
+}
@@ -0,0 +1,252 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for EchoServerTCP. Options are given as key=value arguments:
+ * <pre>
+ * host=localhost port=7777   server address
+ * clients=8                  simulated clients (connections)
+ * rate=0                     target requests per second; 0 runs closed-loop
+ * mix=status:70,add:10,verify:10,view:10
+ *                            relative weight of each op (status, add, verify, view, repair, metrics,
+ *                            submit)
+ * difficulty=2               difficulty of added blocks
+ * warmup=10 duration=30      length of the warmup and measurement phases in seconds
+ * timeout=60000              per-request timeout in milliseconds
+ * </pre>
+ * In closed-loop mode every client sends its next request as soon as the previous reply
+ * arrives. In open-loop mode requests are issued on a fixed schedule regardless of replies,
+ * and latency is measured from the scheduled send time so that a stalled server is not hidden
+ * by the generator backing off.
+ */
+public class LoadGenerator {
+    // Op names accepted in the mix, each handled by issue
+    private static final List<String> KNOWN_OPS =
+            List.of("status", "add", "verify", "view", "repair", "metrics", "submit");
+
+    private final String host;
+    private final int port;
+    private final int clients;
+    private final double rate;
+    private final int difficulty;
+    private final long warmupMillis;
+    private final long durationMillis;
+    private final long timeoutMillis;
+    private final String[] ops;
+    private final int[] cumulativeWeights;
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final LatencyHistogram errors = new LatencyHistogram();
+
+    // Measurement window, in System.nanoTime() units
+    private volatile long measureStart;
+    private volatile long measureEnd;
+
+    /**
+     * Constructor for a load generator from parsed options.
+     *
+     * @param options The key=value options; missing keys take their defaults.
+     */
+    public LoadGenerator(Map<String, String> options) {
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "7777"));
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "8"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.difficulty = Integer.parseInt(options.getOrDefault("difficulty", "2"));
+        this.warmupMillis = Long.parseLong(options.getOrDefault("warmup", "10")) * 1000;
+        this.durationMillis = Long.parseLong(options.getOrDefault("duration", "30")) * 1000;
+        this.timeoutMillis = Long.parseLong(options.getOrDefault("timeout", "60000"));
+
+        String[] entries = options.getOrDefault("mix", "status:70,add:10,verify:10,view:10").split(",");
+        this.ops = new String[entries.length];
+        this.cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].split(":");
+            ops[i] = entry[0].trim();
+            if (!KNOWN_OPS.contains(ops[i]))
+                throw new IllegalArgumentException("Unknown op in mix: " + ops[i] + "; expected one of " + KNOWN_OPS);
+            total += entry.length > 1 ? Integer.parseInt(entry[1].trim()) : 1;
+            cumulativeWeights[i] = total;
+            histograms.put(ops[i], new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Run the load generator.
+     *
+     * @param args key=value options, see the class documentation.
+     * @throws InterruptedException If interrupted while waiting for the run to finish.
+     */
+    public static void main(String args[]) throws InterruptedException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.run();
+        System.out.print(generator.report());
+    }
+
+    /**
+     * Run the warmup and measurement phases.
+     *
+     * @throws InterruptedException If interrupted while waiting for the run to finish.
+     */
+    public void run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        measureEnd = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        System.out.println((rate > 0 ? "Open-loop at " + rate + " requests/s" : "Closed-loop") +
+                " with " + clients + " clients: warmup " + warmupMillis + " ms, measuring " +
+                durationMillis + " ms");
+        if (rate > 0)
+            runOpenLoop();
+        else
+            runClosedLoop();
+    }
+
+    /**
+     * Each client thread owns one connection and waits for every reply before sending again.
+     */
+    private void runClosedLoop() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try (BlockchainClient client = new BlockchainClient(host, port, 1, timeoutMillis)) {
+                    while (System.nanoTime() < measureEnd) {
+                        String op = pickOp();
+                        long sent = System.nanoTime();
+                        CompletableFuture<JsonObject> reply = issue(client, op);
+                        try {
+                            reply.join();
+                            record(op, sent, System.nanoTime(), false);
+                        } catch (RuntimeException e) {
+                            record(op, sent, System.nanoTime(), true);
+                        }
+                    }
+                }
+            }, "load-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    /**
+     * A single dispatcher issues requests on a fixed schedule over a shared connection pool.
+     */
+    private void runOpenLoop() throws InterruptedException {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        AtomicInteger outstanding = new AtomicInteger();
+        try (BlockchainClient client = new BlockchainClient(host, port, clients, timeoutMillis)) {
+            long scheduled = System.nanoTime();
+            while (scheduled < measureEnd) {
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+                String op = pickOp();
+                long intended = scheduled;
+                outstanding.incrementAndGet();
+                issue(client, op).whenComplete((json, e) -> {
+                    record(op, intended, System.nanoTime(), e != null);
+                    outstanding.decrementAndGet();
+                });
+                scheduled += interval;
+            }
+            // Let the last requests finish before the pool is closed
+            while (outstanding.get() > 0)
+                Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Pick an op according to the configured mix.
+     */
+    private String pickOp() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < ops.length; i++) {
+            if (roll < cumulativeWeights[i])
+                return ops[i];
+        }
+        return ops[ops.length - 1];
+    }
+
+    /**
+     * Send the request for an op name.
+     */
+    private CompletableFuture<JsonObject> issue(BlockchainClient client, String op) {
+        switch (op) {
+            case "status":
+                return client.status();
+            case "add":
+                return client.addBlock(difficulty, "load-" + ThreadLocalRandom.current().nextLong());
+            case "verify":
+                return client.verify();
+            case "view":
+                return client.view();
+            case "repair":
+                return client.repair();
+            case "metrics":
+                return client.metrics();
+            case "submit":
+                return client.submit(0, "load-" + ThreadLocalRandom.current().nextLong());
+            default:
+                throw new IllegalArgumentException("Unknown op in mix: " + op);
+        }
+    }
+
+    /**
+     * Record a completed request if it was sent inside the measurement window.
+     */
+    private void record(String op, long sent, long completed, boolean failed) {
+        if (sent < measureStart || sent >= measureEnd)
+            return;
+        long micros = TimeUnit.NANOSECONDS.toMicros(completed - sent);
+        if (failed)
+            errors.record(micros);
+        else
+            histograms.get(op).record(micros);
+    }
+
+    /**
+     * Summarize throughput and latency percentiles for each op.
+     *
+     * @return The report as printable text.
+     */
+    public String report() {
+        double seconds = durationMillis / 1000.0;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-8s %10s %10s %10s %10s %10s %10s %10s%n",
+                "op", "count", "ops/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long total = 0;
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            total += h.getCount();
+            report.append(String.format("%-8s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                    entry.getKey(), h.getCount(), h.getCount() / seconds, h.getMean() / 1000.0,
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                    h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0));
+        }
+        report.append(String.format("Total throughput: %.1f ops/s, errors: %d%n", total / seconds,
+                errors.getCount()));
+        return report.toString();
+    }
+}
@@ -0,0 +1,161 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transactions waiting to be put into a block. Any number of connection threads submit
+ * concurrently without taking a lock: a transaction is counted against the capacity, checked
+ * against the pending set for duplicates and appended to a lock-free queue. A single consumer,
+ * the BlockAssembler, moves them into a priority queue and takes the highest priority first,
+ * oldest first within a priority.
+ */
+public class Mempool {
+    // Highest priority first, then in order of arrival
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry e) -> -e.priority)
+            .thenComparingLong(e -> e.sequence);
+
+    public enum Result { ACCEPTED, DUPLICATE, FULL, INVALID }
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    // Transactions accepted and not yet committed, for rejecting duplicates
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong nextSequence = new AtomicLong();
+    // Only touched by the consumer
+    private final PriorityQueue<Entry> ready = new PriorityQueue<>(ORDER);
+    // Records accepted transactions when -Dwal.file is set, otherwise null
+    private volatile WriteAheadLog wal;
+
+    /**
+     * Constructor for a mempool.
+     *
+     * @param capacity The most transactions that may wait at once.
+     */
+    public Mempool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Record every later accepted transaction in a write-ahead log.
+     *
+     * @param wal The log, already replayed into this mempool.
+     */
+    public void setWriteAheadLog(WriteAheadLog wal) {
+        this.wal = wal;
+    }
+
+    /**
+     * Add a transaction. Safe to call from any number of threads at once.
+     *
+     * @param transaction The transaction.
+     * @param priority    Higher priorities are put into blocks first.
+     * @return ACCEPTED, DUPLICATE if the same transaction is already waiting, FULL, or INVALID
+     * if the transaction is null or blank.
+     */
+    public Result submit(String transaction, int priority) {
+        // Checked before a slot is reserved, as nothing would give the slot back
+        if (transaction == null || transaction.isBlank())
+            return Result.INVALID;
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return Result.FULL;
+        }
+        if (!pending.add(transaction)) {
+            size.decrementAndGet();
+            return Result.DUPLICATE;
+        }
+        if (wal != null) {
+            JsonObject record = new JsonObject();
+            record.addProperty("op", "tx");
+            record.addProperty("transaction", transaction);
+            record.addProperty("priority", priority);
+            try {
+                wal.append(record);
+            } catch (RuntimeException e) {
+                // Not logged, so not accepted
+                pending.remove(transaction);
+                size.decrementAndGet();
+                throw e;
+            }
+        }
+        incoming.offer(new Entry(transaction, priority, nextSequence.getAndIncrement()));
+        Metrics.transactionsSubmitted.increment();
+        return Result.ACCEPTED;
+    }
+
+    /**
+     * Get the number of transactions waiting, including any taken but not yet committed.
+     *
+     * @return The number of pending transactions.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Take the highest priority transactions for a block. Consumer only.
+     *
+     * @param max The most transactions to take.
+     * @return The transactions, highest priority first.
+     */
+    List<Entry> take(int max) {
+        Entry entry;
+        while ((entry = incoming.poll()) != null)
+            ready.add(entry);
+        List<Entry> batch = new ArrayList<>();
+        while (batch.size() < max && !ready.isEmpty())
+            batch.add(ready.poll());
+        return batch;
+    }
+
+    /**
+     * Return transactions that did not make it into a block. Consumer only.
+     *
+     * @param batch The transactions returned by take.
+     */
+    void putBack(List<Entry> batch) {
+        ready.addAll(batch);
+    }
+
+    /**
+     * Forget transactions that are now in the chain. Consumer only. Nothing is logged here: the
+     * block record holding the transactions already commits them in the write-ahead log.
+     *
+     * @param batch The transactions returned by take.
+     */
+    void committed(List<Entry> batch) {
+        for (Entry entry : batch)
+            pending.remove(entry.transaction);
+        size.addAndGet(-batch.size());
+        Metrics.transactionsCommitted.add(batch.size());
+    }
+
+    /**
+     * One pending transaction.
+     */
+    static class Entry {
+        final String transaction;
+        final int priority;
+        final long sequence;
+
+        Entry(String transaction, int priority, long sequence) {
+            this.transaction = transaction;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+}
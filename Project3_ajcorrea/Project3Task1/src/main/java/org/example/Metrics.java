@@ -0,0 +1,124 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on counters for the blockchain and the server. Counters are LongAdders, so the hot
+ * paths only pay for an uncontended add: once per request, and once per batch of hashes in
+ * the mining loop. Latencies go into LatencyHistograms in microseconds.
+ */
+public class Metrics {
+    // Number of request ops tracked, 0 to 12
+    static final int OPS = 13;
+
+    // Every SHA-256 block hash computed, whether for mining or verification
+    static final LongAdder hashesComputed = new LongAdder();
+    // Hashes tried and time spent inside proof of work
+    static final LongAdder miningHashes = new LongAdder();
+    static final LongAdder miningNanos = new LongAdder();
+    static final LongAdder blocksMined = new LongAdder();
+    // Blocks mined by a peer and appended here
+    static final LongAdder blocksReplicated = new LongAdder();
+    // Blocks announced from here that a peer rejected, e.g. after op 4 or 5 changed this chain
+    static final LongAdder announcementsRejected = new LongAdder();
+    // Transactions accepted into the mempool, and those since put into blocks
+    static final LongAdder transactionsSubmitted = new LongAdder();
+    static final LongAdder transactionsCommitted = new LongAdder();
+    // Blocks checked by the background auditor
+    static final LongAdder blocksAudited = new LongAdder();
+    static final LatencyHistogram verifyMicros = new LatencyHistogram();
+    static final LatencyHistogram repairMicros = new LatencyHistogram();
+    // Server-side latency of each request op, from reading the request to writing the reply
+    static final LatencyHistogram[] requestMicros = new LatencyHistogram[OPS];
+
+    private static final long startNanos = System.nanoTime();
+
+    static {
+        for (int i = 0; i < OPS; i++)
+            requestMicros[i] = new LatencyHistogram();
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Record one finished proof of work.
+     *
+     * @param hashes Number of hashes tried.
+     * @param nanos  Time spent.
+     */
+    static void recordMining(long hashes, long nanos) {
+        miningHashes.add(hashes);
+        miningNanos.add(nanos);
+    }
+
+    /**
+     * Record the time taken to serve a request.
+     *
+     * @param op    The request op.
+     * @param nanos Time spent.
+     */
+    static void recordRequest(int op, long nanos) {
+        if (op >= 0 && op < OPS)
+            requestMicros[op].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Get the hash rate achieved while mining, averaged over all proof of work so far.
+     *
+     * @return Hashes per second, or 0 before anything has been mined.
+     */
+    static long getMiningHashesPerSecond() {
+        long nanos = miningNanos.sum();
+        return nanos == 0 ? 0 : miningHashes.sum() * 1_000_000_000L / nanos;
+    }
+
+    /**
+     * Snapshot every counter as JSON.
+     *
+     * @return The current metrics.
+     */
+    static JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("uptimeMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        json.addProperty("hashesComputed", hashesComputed.sum());
+        json.addProperty("miningHashes", miningHashes.sum());
+        json.addProperty("miningMillis", TimeUnit.NANOSECONDS.toMillis(miningNanos.sum()));
+        json.addProperty("miningHashesPerSecond", getMiningHashesPerSecond());
+        json.addProperty("blocksMined", blocksMined.sum());
+        json.addProperty("blocksReplicated", blocksReplicated.sum());
+        json.addProperty("announcementsRejected", announcementsRejected.sum());
+        json.addProperty("transactionsSubmitted", transactionsSubmitted.sum());
+        json.addProperty("transactionsCommitted", transactionsCommitted.sum());
+        json.addProperty("blocksAudited", blocksAudited.sum());
+        json.add("verify", histogramJson(verifyMicros));
+        json.add("repair", histogramJson(repairMicros));
+        JsonObject requests = new JsonObject();
+        for (int i = 0; i < OPS; i++) {
+            if (requestMicros[i].getCount() > 0)
+                requests.add(String.valueOf(i), histogramJson(requestMicros[i]));
+        }
+        json.add("requests", requests);
+        return json;
+    }
+
+    /**
+     * Summarize a histogram of microseconds in milliseconds.
+     */
+    private static JsonObject histogramJson(LatencyHistogram histogram) {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", histogram.getCount());
+        json.addProperty("meanMs", histogram.getMean() / 1000.0);
+        json.addProperty("p50Ms", histogram.getValueAtPercentile(50) / 1000.0);
+        json.addProperty("p99Ms", histogram.getValueAtPercentile(99) / 1000.0);
+        json.addProperty("p999Ms", histogram.getValueAtPercentile(99.9) / 1000.0);
+        json.addProperty("maxMs", histogram.getMax() / 1000.0);
+        return json;
+    }
+}
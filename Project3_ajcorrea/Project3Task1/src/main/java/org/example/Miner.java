@@ -0,0 +1,165 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide mining controls: how many threads proof of work may use, and the jobs being
+ * mined so they can be watched and cancelled. Requests and the block assembler mine at the
+ * same time, so each job has an id and is cancelled by it.
+ */
+public class Miner {
+    // Number of threads a single proof of work may use
+    private static volatile int threads = 1;
+    // Proofs of work in progress, by job id
+    private static final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    private static final AtomicLong nextJobId = new AtomicLong(1);
+
+    // Helper threads for parallel proof of work; the calling thread always takes part too
+    static final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "miner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Miner() {
+    }
+
+    /**
+     * Get the number of threads proof of work may use.
+     *
+     * @return The mining thread count.
+     */
+    public static int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads proof of work may use, clamped to between 1 and the number of
+     * available processors. Applies from the next proof of work.
+     *
+     * @param count The requested thread count.
+     */
+    public static void setThreads(int count) {
+        threads = Math.max(1, Math.min(count, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Get the proofs of work in progress.
+     *
+     * @return The jobs, oldest first; empty when nothing is being mined.
+     */
+    public static List<Job> getJobs() {
+        List<Job> running = new ArrayList<>(jobs.values());
+        running.sort((a, b) -> Long.compare(a.id, b.id));
+        return running;
+    }
+
+    /**
+     * Cancel one proof of work. Its mining call throws a CancellationException.
+     *
+     * @param id The job id.
+     * @return True if the job was running.
+     */
+    public static boolean cancel(long id) {
+        Job job = jobs.get(id);
+        if (job == null)
+            return false;
+        job.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Cancel every proof of work in progress.
+     *
+     * @return The number of jobs cancelled.
+     */
+    public static int cancelAll() {
+        int cancelled = 0;
+        for (Job job : jobs.values()) {
+            job.cancelled = true;
+            cancelled++;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Register a new proof of work, mined by the calling thread.
+     */
+    static Job start(int blockIndex, int difficulty) {
+        Job job = new Job(nextJobId.getAndIncrement(), blockIndex, difficulty, Thread.currentThread().getName());
+        jobs.put(job.id, job);
+        return job;
+    }
+
+    /**
+     * Forget a job once its proof of work returns.
+     */
+    static void finish(Job job) {
+        jobs.remove(job.id);
+    }
+
+    /**
+     * One running proof of work.
+     */
+    public static class Job {
+        final long id;
+        final int blockIndex;
+        final int difficulty;
+        // Thread that asked for the proof of work, e.g. a client's or the block assembler's
+        final String owner;
+        final long startNanos = System.nanoTime();
+        // Hashes tried so far, added in batches by the mining threads
+        final LongAdder hashesTried = new LongAdder();
+        volatile boolean cancelled;
+
+        Job(long id, int blockIndex, int difficulty, String owner) {
+            this.id = id;
+            this.blockIndex = blockIndex;
+            this.difficulty = difficulty;
+            this.owner = owner;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public int getBlockIndex() {
+            return blockIndex;
+        }
+
+        public int getDifficulty() {
+            return difficulty;
+        }
+
+        public long getHashesTried() {
+            return hashesTried.sum();
+        }
+
+        public long getElapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        }
+
+        /**
+         * Describe the job on one line, for JMX.
+         */
+        @Override
+        public String toString() {
+            return "job " + id + ": block " + blockIndex + " at difficulty " + difficulty + " for " + owner +
+                    ", " + getHashesTried() + " hashes in " + getElapsedMillis() + " ms";
+        }
+    }
+}
@@ -0,0 +1,236 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps blocks outside the Java heap, encoded into direct ByteBuffer arenas, so the heap does
+ * not grow with the chain and the garbage collector never scans the stored blocks. The
+ * position of each record is kept in direct LongBuffers too. get decodes a fresh Block from
+ * its record; the copy is short-lived and changes to it are only kept if written back with
+ * set. set overwrites the old record when the new one fits in it, and otherwise appends a new
+ * record and leaves the old one unused. Once unused bytes outnumber the live ones, and are at
+ * least an arena's worth, the live records are copied into fresh arenas, so repeated repairs
+ * cannot grow the store without bound.
+ * <p>
+ * Record layout:
+ * <pre>
+ * int index | long timestamp millis | int timestamp nanos | int difficulty | int difficulty bits
+ * byte nonce length (at most 127) | nonce bytes (two's complement)
+ * byte has previous hash (0 or 1) | [32 previous hash bytes]
+ * int data length | data bytes (UTF-8)
+ * </pre>
+ */
+public class OffHeapBlockStore implements BlockStore {
+    // Record positions held per index chunk; each position is (arena << 32) | offset
+    private static final int INDEX_CHUNK = 1 << 16;
+
+    private final int arenaBytes;
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private final List<LongBuffer> positions = new ArrayList<>();
+    private int size;
+    // Bytes written into the arenas, and the part of them taken by records replaced through set
+    private long writtenBytes;
+    private long unusedBytes;
+
+    /**
+     * Constructor for an empty store.
+     *
+     * @param arenaBytes Size of each direct buffer blocks are written into.
+     */
+    public OffHeapBlockStore(int arenaBytes) {
+        this.arenaBytes = arenaBytes;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Block get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        long position = positions.get(i / INDEX_CHUNK).get(i % INDEX_CHUNK);
+        return decode(arenas.get((int) (position >>> 32)), (int) position);
+    }
+
+    @Override
+    public void add(Block block) {
+        if (size % INDEX_CHUNK == 0)
+            positions.add(ByteBuffer.allocateDirect(INDEX_CHUNK * Long.BYTES).asLongBuffer());
+        positions.get(size / INDEX_CHUNK).put(size % INDEX_CHUNK, write(block));
+        size++;
+    }
+
+    @Override
+    public void set(int i, Block block) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        LongBuffer chunk = positions.get(i / INDEX_CHUNK);
+        long old = chunk.get(i % INDEX_CHUNK);
+        ByteBuffer arena = arenas.get((int) (old >>> 32));
+        int oldLength = recordLength(arena, (int) old);
+        Record record = new Record(block);
+        if (record.length <= oldLength) {
+            // Repairs mostly change the nonce and previous hash, so the record usually fits
+            record.encode(arena.duplicate().position((int) old));
+            unusedBytes += oldLength - record.length;
+        } else {
+            unusedBytes += oldLength;
+            chunk.put(i % INDEX_CHUNK, write(record));
+        }
+        if (unusedBytes >= arenaBytes && unusedBytes > writtenBytes - unusedBytes)
+            compact();
+    }
+
+    /**
+     * Encode a block at the end of the current arena, starting a new one if it does not fit.
+     *
+     * @return The position of the record.
+     */
+    private long write(Block block) {
+        return write(new Record(block));
+    }
+
+    private long write(Record record) {
+        ByteBuffer arena = reserve(record.length);
+        long position = ((long) (arenas.size() - 1) << 32) | arena.position();
+        record.encode(arena);
+        return position;
+    }
+
+    /**
+     * Get the current arena, starting a new one if the given number of bytes does not fit, and
+     * count the bytes as written.
+     */
+    private ByteBuffer reserve(int length) {
+        ByteBuffer arena = arenas.isEmpty() ? null : arenas.get(arenas.size() - 1);
+        if (arena == null || arena.remaining() < length) {
+            arena = ByteBuffer.allocateDirect(Math.max(arenaBytes, length));
+            arenas.add(arena);
+        }
+        writtenBytes += length;
+        return arena;
+    }
+
+    /**
+     * Copy every live record into fresh arenas, in chain order, and drop the old arenas. Their
+     * direct memory is freed once the buffers are collected.
+     */
+    private void compact() {
+        List<ByteBuffer> old = new ArrayList<>(arenas);
+        arenas.clear();
+        writtenBytes = 0;
+        unusedBytes = 0;
+        for (int i = 0; i < size; i++) {
+            LongBuffer chunk = positions.get(i / INDEX_CHUNK);
+            long position = chunk.get(i % INDEX_CHUNK);
+            ByteBuffer source = old.get((int) (position >>> 32));
+            int length = recordLength(source, (int) position);
+            ByteBuffer arena = reserve(length);
+            chunk.put(i % INDEX_CHUNK, ((long) (arenas.size() - 1) << 32) | arena.position());
+            arena.put(arena.position(), source, (int) position, length);
+            arena.position(arena.position() + length);
+        }
+    }
+
+    /**
+     * A block's fields in their encoded form, measured before they are written.
+     */
+    private static class Record {
+        final Block block;
+        final byte[] nonce;
+        final Hash previousHash;
+        final byte[] data;
+        final int length;
+
+        Record(Block block) {
+            this.block = block;
+            nonce = block.getNonce().toByteArray();
+            // The length is stored in one signed byte, so a longer nonce would wrap
+            if (nonce.length > Byte.MAX_VALUE)
+                throw new IllegalArgumentException("Nonce of block " + block.getIndex() + " is " +
+                        nonce.length + " bytes; at most " + Byte.MAX_VALUE + " can be stored");
+            previousHash = block.getPreviousHashValue();
+            data = block.getData().getBytes(StandardCharsets.UTF_8);
+            length = 4 + 8 + 4 + 4 + 4 + 1 + nonce.length + 1 + (previousHash == null ? 0 : Hash.BYTES) +
+                    4 + data.length;
+        }
+
+        /**
+         * Write the record at the buffer's position, advancing it.
+         */
+        void encode(ByteBuffer arena) {
+            Timestamp timestamp = block.getTimestamp();
+            arena.putInt(block.getIndex());
+            arena.putLong(timestamp.getTime());
+            arena.putInt(timestamp.getNanos());
+            arena.putInt(block.getDifficulty());
+            arena.putInt(block.getDifficultyBits());
+            arena.put((byte) nonce.length);
+            arena.put(nonce);
+            if (previousHash == null) {
+                arena.put((byte) 0);
+            } else {
+                byte[] hash = new byte[Hash.BYTES];
+                previousHash.copyTo(hash, 0);
+                arena.put((byte) 1);
+                arena.put(hash);
+            }
+            arena.putInt(data.length);
+            arena.put(data);
+        }
+    }
+
+    /**
+     * Rebuild a block from its record, reading with absolute gets so readers share the arena.
+     */
+    private static Block decode(ByteBuffer arena, int offset) {
+        int index = arena.getInt(offset);
+        Timestamp timestamp = new Timestamp(arena.getLong(offset + 4));
+        timestamp.setNanos(arena.getInt(offset + 12));
+        int difficulty = arena.getInt(offset + 16);
+        int difficultyBits = arena.getInt(offset + 20);
+        int at = offset + 24;
+        byte[] nonce = new byte[arena.get(at++)];
+        arena.get(at, nonce);
+        at += nonce.length;
+
+        Hash previousHash = null;
+        if (arena.get(at++) != 0) {
+            byte[] hash = new byte[Hash.BYTES];
+            arena.get(at, hash);
+            at += Hash.BYTES;
+            previousHash = Hash.of(hash);
+        }
+        byte[] data = new byte[arena.getInt(at)];
+        arena.get(at + 4, data);
+
+        Block block = new Block(index, timestamp, new String(data, StandardCharsets.UTF_8), difficulty);
+        if (difficultyBits != 4 * difficulty)
+            block.setDifficultyBits(difficultyBits);
+        block.setPreviousHash(previousHash);
+        block.setNonce(new BigInteger(nonce));
+        return block;
+    }
+
+    /**
+     * Get the length of the record at an offset.
+     */
+    private static int recordLength(ByteBuffer arena, int offset) {
+        int at = offset + 24;
+        at += 1 + arena.get(at);
+        if (arena.get(at++) != 0)
+            at += Hash.BYTES;
+        return at + 4 + arena.getInt(at) - offset;
+    }
+}
@@ -0,0 +1,161 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonObject;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Replicates blocks between server instances. On startup a node downloads the peers' chain
+ * with ChainSync, headers first, instead of mining its own genesis block. After that, each
+ * block mined here is announced to every peer (op 9), which appends it only if it passes the
+ * same prefix and link checks as isChainValid. A peer that
+ * has fallen behind replies MISSING with its chain size and is sent the blocks it lacks first.
+ * <p>
+ * Blocks are announced only by the node that mined them and are not forwarded, so every node
+ * should list all the others. Mining should happen on one node at a time; blocks mined at the
+ * same height on two nodes conflict and are rejected rather than resolved.
+ * <p>
+ * Only appended blocks are replicated, not changes made in place. Once a node corrupts (op 4)
+ * or repairs (op 5) its chain, its hashes no longer match its peers', so from then on every
+ * announcement between them is rejected in both directions: the node has fallen out of
+ * replication until it is restarted with an empty chain and copies its peers' again. Each
+ * rejection is logged and counted in Metrics.announcementsRejected.
+ * <pre>
+ * -Dpeers=localhost:7778,localhost:7779   peers to copy from and announce to
+ * -Dpeers.timeoutMillis=10000             time to wait for a peer's reply
+ * </pre>
+ */
+public class PeerReplicator {
+    private final BlockChain chain;
+    private final List<Peer> peers = new ArrayList<>();
+
+    /**
+     * Constructor for a replicator of the given chain.
+     *
+     * @param chain         The chain to copy into and announce from.
+     * @param addresses     Peer addresses as host:port.
+     * @param timeoutMillis Time to wait for a peer's reply.
+     */
+    public PeerReplicator(BlockChain chain, List<String> addresses, long timeoutMillis) {
+        this.chain = chain;
+        for (String address : addresses) {
+            int colon = address.lastIndexOf(':');
+            peers.add(new Peer(address, new BlockchainClient(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1)), 1, timeoutMillis)));
+        }
+    }
+
+    /**
+     * Build a replicator from the peers.* system properties.
+     *
+     * @param chain The chain to copy into and announce from.
+     * @return The replicator, or null if no peers are configured.
+     */
+    public static PeerReplicator fromSystemProperties(BlockChain chain) {
+        String peers = System.getProperty("peers", "").trim();
+        if (peers.isEmpty())
+            return null;
+        return new PeerReplicator(chain, List.of(peers.split("\\s*,\\s*")),
+                Long.getLong("peers.timeoutMillis", 10000));
+    }
+
+    /**
+     * Download the peers' chain beyond the end of the local chain, headers first, as described
+     * in ChainSync.
+     *
+     * @return True if the local chain holds at least one block afterwards.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    public boolean bootstrap() throws NoSuchAlgorithmException {
+        try {
+            ChainSync.fromSystemProperties(chain, peers).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (chain) {
+            return chain.getChainSize() > 0;
+        }
+    }
+
+    /**
+     * Announce a newly mined block to every peer. Returns at once; each peer is sent its
+     * announcements in order on its own thread.
+     *
+     * @param block The block just appended to the local chain.
+     */
+    public void announce(Block block) {
+        JsonObject json = block.toJson();
+        for (Peer peer : peers)
+            peer.sender.execute(() -> deliver(peer, json));
+    }
+
+    /**
+     * Send one block to a peer, first sending any earlier blocks it reports missing.
+     */
+    private void deliver(Peer peer, JsonObject block) {
+        try {
+            JsonObject reply = peer.client.announce(block).get();
+            if (!"MISSING".equals(reply.get("response").getAsString())) {
+                checkAccepted(peer, block, reply);
+                return;
+            }
+            // The peer is behind: send what it lacks from the local chain, then this block again
+            List<JsonObject> missing = new ArrayList<>();
+            synchronized (chain) {
+                int end = Math.min(block.get("index").getAsInt(), chain.getChainSize());
+                for (int i = reply.get("size").getAsInt(); i < end; i++)
+                    missing.add(chain.getBlock(i).toJson());
+            }
+            for (JsonObject earlier : missing) {
+                if (!checkAccepted(peer, earlier, peer.client.announce(earlier).get()))
+                    return;
+            }
+            checkAccepted(peer, block, peer.client.announce(block).get());
+        } catch (ExecutionException e) {
+            EchoServerTCP.log.warn("Could not announce block to " + peer.address + ": " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Log and count a block the peer would not take, e.g. because the two chains have diverged.
+     *
+     * @return True if the peer appended the block or already had it.
+     */
+    private static boolean checkAccepted(Peer peer, JsonObject block, JsonObject reply) {
+        String response = reply.get("response").getAsString();
+        if ("TRUE".equals(response) || "DUPLICATE".equals(response))
+            return true;
+        Metrics.announcementsRejected.increment();
+        EchoServerTCP.log.warn("Peer " + peer.address + " rejected block " + block.get("index").getAsInt() +
+                ": " + response.replace('\n', ' '));
+        return false;
+    }
+
+    /**
+     * One configured peer, with its connection and the thread that sends to it.
+     */
+    static class Peer {
+        final String address;
+        final BlockchainClient client;
+        final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "peer-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Peer(String address, BlockchainClient client) {
+            this.address = address;
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the requests of one connection straight off its socket. A single lenient JsonReader
+ * streams through the pipelined request objects one after another, so there is no line
+ * splitting, no intermediate String or JsonObject per request, and its buffers are reused for
+ * the life of the connection. Each field is read into a Request, which is also reused: it is
+ * only valid until the next call to next.
+ */
+public class RequestDecoder {
+    private final JsonReader reader;
+    private final Request request = new Request();
+
+    /**
+     * Constructor for a decoder of a connection's input.
+     *
+     * @param in The socket's input stream.
+     */
+    public RequestDecoder(InputStream in) {
+        reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        // Lenient so that one reader accepts a stream of top-level objects
+        reader.setLenient(true);
+    }
+
+    /**
+     * Read the next request, waiting for it to arrive.
+     *
+     * @return The request, or null once the client has closed the connection.
+     * @throws IOException If the connection fails, the request is not a JSON object or a field
+     *                     has the wrong type, e.g. "op":"x"; the stream cannot be read past it.
+     */
+    public Request next() throws IOException {
+        try {
+            return read();
+        } catch (IllegalStateException | NumberFormatException | JsonParseException e) {
+            throw new IOException("Malformed request: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the next request's fields.
+     */
+    private Request read() throws IOException {
+        if (reader.peek() == JsonToken.END_DOCUMENT)
+            return null;
+        request.clear();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "op":
+                    request.op = reader.nextInt();
+                    break;
+                case "id":
+                    request.id = JsonParser.parseReader(reader);
+                    break;
+                case "difficulty":
+                    request.difficulty = reader.nextInt();
+                    break;
+                case "difficultyBits":
+                    request.difficultyBits = reader.nextInt();
+                    break;
+                case "index":
+                    request.index = reader.nextInt();
+                    break;
+                case "transaction":
+                    request.transaction = reader.nextString();
+                    break;
+                case "from":
+                    request.from = reader.nextInt();
+                    break;
+                case "count":
+                    request.count = reader.nextInt();
+                    break;
+                case "priority":
+                    request.priority = reader.nextInt();
+                    break;
+                case "encodings":
+                    request.encodings = reader.nextString();
+                    break;
+                case "block":
+                    // Only peers' announcements carry a nested object; it becomes a Block anyway
+                    request.block = JsonParser.parseReader(reader).getAsJsonObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return request;
+    }
+
+    /**
+     * One request as the server reads it. Fields a request does not carry keep their defaults:
+     * -1 for op, difficultyBits, index and count, 0 for the other numbers and null otherwise.
+     */
+    static class Request {
+        int op;
+        JsonElement id;
+        int difficulty;
+        int difficultyBits;
+        int index;
+        String transaction;
+        int from;
+        int count;
+        int priority;
+        String encodings;
+        JsonObject block;
+
+        /**
+         * Name a field the request's op cannot do without but the request lacks, so it can be
+         * refused before anything is changed.
+         *
+         * @return The missing field, or null if the request has all it needs.
+         */
+        String missingField() {
+            switch (op) {
+                case 1:
+                case 11:
+                    return transaction == null ? "transaction" : null;
+                case 4:
+                    return index < 0 ? "index" : transaction == null ? "transaction" : null;
+                case 9:
+                    return block == null ? "block" : null;
+                default:
+                    return null;
+            }
+        }
+
+        private void clear() {
+            op = -1;
+            id = null;
+            difficulty = 0;
+            difficultyBits = -1;
+            index = -1;
+            transaction = null;
+            from = 0;
+            count = -1;
+            priority = 0;
+            encodings = null;
+            block = null;
+        }
+    }
+}
@@ -7,7 +7,7 @@ import com.google.gson.JsonObject;
 public class RequestMessage {
     private JsonObject requestJson = new JsonObject();
 
-    // options 0, 2, 3, 4, 6
+    // options 0, 2, 3, 5, 6, 7
     /**
      * Constructor for single operation
      *
@@ -17,7 +17,7 @@ public class RequestMessage {
         requestJson.addProperty("op", op);
     }
 
-    // options 1 , 4
+    // options 1 , 4, 11
     /**
      * Constructor to send additional property and transaction details
      *
@@ -31,9 +31,80 @@ public class RequestMessage {
             requestJson.addProperty("difficulty", property);
         if (op == 4)
             requestJson.addProperty("index", property);
+        if (op == 11)
+            requestJson.addProperty("priority", property);
         requestJson.addProperty("transaction", transaction);
     }
 
+    // option 8
+    /**
+     * Constructor to ask a peer for its blocks from an index onwards
+     *
+     * @param op
+     * @param from
+     */
+    public RequestMessage(int op, int from) {
+        requestJson.addProperty("op", op);
+        requestJson.addProperty("from", from);
+    }
+
+    // options 8, 10
+    /**
+     * Constructor to ask a peer for at most count blocks or headers from an index onwards
+     *
+     * @param op
+     * @param from
+     * @param count
+     */
+    public RequestMessage(int op, int from, int count) {
+        this(op, from);
+        requestJson.addProperty("count", count);
+    }
+
+    // option 12
+    /**
+     * Constructor to ask for compressed replies on this connection
+     *
+     * @param op
+     * @param encodings Comma-separated encodings in order of preference
+     */
+    public RequestMessage(int op, String encodings) {
+        requestJson.addProperty("op", op);
+        requestJson.addProperty("encodings", encodings);
+    }
+
+    // option 9
+    /**
+     * Constructor to announce a mined block to a peer
+     *
+     * @param op
+     * @param block
+     */
+    public RequestMessage(int op, JsonObject block) {
+        requestJson.addProperty("op", op);
+        requestJson.add("block", block);
+    }
+
+    /**
+     * Ask for a difficulty in leading zero bits rather than hex digits (option 1)
+     *
+     * @param difficultyBits
+     */
+    public void setDifficultyBits(int difficultyBits) {
+        requestJson.remove("difficulty");
+        requestJson.addProperty("difficultyBits", difficultyBits);
+    }
+
+    /**
+     * Tag the request with an id that the server echoes back in its response,
+     * so replies can be matched to requests when several are in flight.
+     *
+     * @param id
+     */
+    public void setId(long id) {
+        requestJson.addProperty("id", id);
+    }
+
     /**
      * Getter method for requestJson
      *
@@ -3,11 +3,18 @@
 
 package org.example;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 import java.math.BigInteger;
 
 public class ResponseMessage {
     private JsonObject responseJson = new JsonObject();
+    // Response serialized ahead of time, sent instead of responseJson when set
+    private String serialized;
+    private JsonElement id;
 
     // option 0
     /**
@@ -18,12 +25,18 @@ public class ResponseMessage {
      * @param difficulty
      * @param totalDifficulty
      * @param hashesPerSecond
+     * @param hashesPerSecondAllCores
      * @param totalExpectedHashes
      * @param nonce
      * @param chainHash
+     * @param difficultyBits
+     * @param auditInvalid   First invalid block found by the auditor, -1 for none, or null
+     *                       when the auditor is off
      */
     public ResponseMessage(int option, int chainSize, int difficulty, int totalDifficulty,
-                           int hashesPerSecond, double totalExpectedHashes, BigInteger nonce, String chainHash) {
+                           int hashesPerSecond, long hashesPerSecondAllCores, double totalExpectedHashes,
+                           BigInteger nonce, String chainHash, int difficultyBits,
+                           Integer auditInvalid) {
         responseJson.addProperty("selection", option);
         responseJson.addProperty("size", chainSize);
         responseJson.addProperty("chainHash", chainHash);
@@ -31,7 +44,11 @@ public class ResponseMessage {
         responseJson.addProperty("totalDiff", totalDifficulty);
         responseJson.addProperty("recentNonce", nonce);
         responseJson.addProperty("diff", difficulty);
+        responseJson.addProperty("diffBits", difficultyBits);
         responseJson.addProperty("hps", hashesPerSecond);
+        responseJson.addProperty("hpsAllCores", hashesPerSecondAllCores);
+        if (auditInvalid != null)
+            responseJson.addProperty("auditInvalid", auditInvalid);
     }
 
 
@@ -48,12 +65,95 @@ public class ResponseMessage {
     }
 
 
+    // option 7
+    /**
+     * Constructor for ResponseMessage carrying a metrics snapshot
+     *
+     * @param selection
+     * @param metrics
+     */
+    public ResponseMessage(int selection, JsonObject metrics) {
+        responseJson.addProperty("selection", selection);
+        responseJson.add("metrics", metrics);
+    }
+
+    // options 8, 10
+    /**
+     * Constructor for ResponseMessage carrying a run of blocks or block headers
+     *
+     * @param selection
+     * @param name
+     * @param blocks
+     */
+    public ResponseMessage(int selection, String name, JsonArray blocks) {
+        responseJson.addProperty("selection", selection);
+        responseJson.add(name, blocks);
+    }
+
+    // options 9, 11
+    /**
+     * Constructor for ResponseMessage with a response and a size: the chain size for option 9,
+     * the number of pending transactions for option 11
+     *
+     * @param selection
+     * @param response
+     * @param size
+     */
+    public ResponseMessage(int selection, String response, int size) {
+        responseJson.addProperty("selection", selection);
+        responseJson.addProperty("response", response);
+        responseJson.addProperty("size", size);
+    }
+
+
+    /**
+     * Constructor for a response that was serialized ahead of time, so a reply that many
+     * requests share is not rebuilt for each of them
+     *
+     * @param serialized A JSON object without an "id" property
+     */
+    public ResponseMessage(String serialized) {
+        this.serialized = serialized;
+    }
+
+
+    /**
+     * Echo the id of the request this message answers. Requests without an id
+     * (e.g. from older clients) leave the response unchanged.
+     *
+     * @param id
+     */
+    public void setId(JsonElement id) {
+        if (id == null)
+            return;
+        if (serialized != null)
+            this.id = id;
+        else
+            responseJson.add("id", id);
+    }
+
     /**
      * getter method for ResponseJson
      *
      * @return
      */
     public JsonObject getResponseJson() {
+        if (serialized != null)
+            return JsonParser.parseString(toJsonString()).getAsJsonObject();
         return responseJson;
     }
+
+    /**
+     * Serialize the response for sending
+     *
+     * @return The response as a single line of JSON
+     */
+    public String toJsonString() {
+        if (serialized == null)
+            return responseJson.toString();
+        if (id == null)
+            return serialized;
+        // Splice the id in before the closing brace
+        return serialized.substring(0, serialized.length() - 1) + ",\"id\":" + id + "}";
+    }
 }
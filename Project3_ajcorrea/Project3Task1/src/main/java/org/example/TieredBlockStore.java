@@ -0,0 +1,255 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the most recent blocks whole in memory and moves the bodies of older blocks to disk.
+ * Once more than the hot limit of blocks are held, the oldest segment of blocks is spilled:
+ * their headers stay resident in a ColumnarBlockStore and their data is written as one
+ * compressed segment file. Reading an old block loads its segment through a size-bounded LRU
+ * cache, so memory follows the blocks being read rather than the length of the chain.
+ * <p>
+ * Segments are never rewritten. A cold block whose data is changed through set keeps the new
+ * data in memory instead. Segment files only serve the running store, which starts empty and
+ * is rebuilt from the write-ahead log or the peers on restart, so they are deleted when the
+ * server exits, wherever they are written.
+ * <p>
+ * Every read reorders the cache, so it has its own lock; the rest of the store is guarded by
+ * the chain lock like any other store.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Dchain.store.dir=blocks              directory for segment files (default: a temp directory)
+ * -Dchain.store.hotBlocks=4096          recent blocks kept whole in memory
+ * -Dchain.store.cacheBytes=67108864     bodies of cold segments cached in memory
+ * </pre>
+ */
+public class TieredBlockStore implements BlockStore {
+    // Blocks whose bodies are written to one segment file
+    static final int SEGMENT_BLOCKS = 1024;
+
+    private final Path directory;
+    private final int hotBlocks;
+    private final long cacheBytes;
+
+    // Headers of spilled blocks, stored with empty data
+    private final ColumnarBlockStore coldHeaders = new ColumnarBlockStore();
+    // Blocks from coldHeaders.size() on
+    private final List<Block> hot = new ArrayList<>();
+    // Cold blocks whose data was changed after spilling
+    private final Map<Integer, String> changedBodies = new HashMap<>();
+    // Segment files written so far; volatile for the shutdown hook that deletes them
+    private volatile int segments;
+    // Decoded segments, least recently used first; the cache and its size are guarded by the
+    // cache itself
+    private final LinkedHashMap<Integer, String[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    /**
+     * Constructor for an empty store. Any segment files already in the directory are
+     * overwritten as the store spills, and all of them are deleted when the JVM exits.
+     *
+     * @param directory  Directory segment files are written to.
+     * @param hotBlocks  Recent blocks kept whole in memory.
+     * @param cacheBytes Approximate bytes of cold bodies kept in the cache.
+     */
+    public TieredBlockStore(Path directory, int hotBlocks, long cacheBytes) {
+        this.directory = directory;
+        this.hotBlocks = hotBlocks;
+        this.cacheBytes = cacheBytes;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::deleteSegments, "segment-cleanup"));
+    }
+
+    /**
+     * Build a store from the chain.store.* system properties.
+     *
+     * @return A new, empty store.
+     */
+    public static TieredBlockStore fromSystemProperties() {
+        try {
+            String dir = System.getProperty("chain.store.dir");
+            Path directory;
+            if (dir == null) {
+                directory = Files.createTempDirectory("blocks");
+                directory.toFile().deleteOnExit();
+            } else {
+                directory = Files.createDirectories(Paths.get(dir));
+            }
+            return new TieredBlockStore(directory, Integer.getInteger("chain.store.hotBlocks", 4096),
+                    Long.getLong("chain.store.cacheBytes", 64L << 20));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return coldHeaders.size() + hot.size();
+    }
+
+    @Override
+    public Block get(int i) {
+        if (i >= coldHeaders.size())
+            return hot.get(i - coldHeaders.size());
+        Block block = coldHeaders.get(i);
+        String body = changedBodies.get(i);
+        block.setData(body != null ? body : segment(i / SEGMENT_BLOCKS)[i % SEGMENT_BLOCKS]);
+        return block;
+    }
+
+    @Override
+    public void add(Block block) {
+        hot.add(block);
+        if (hot.size() >= hotBlocks + SEGMENT_BLOCKS)
+            spill();
+    }
+
+    @Override
+    public void set(int i, Block block) {
+        if (i >= coldHeaders.size()) {
+            hot.set(i - coldHeaders.size(), block);
+            return;
+        }
+        String body = block.getData();
+        coldHeaders.set(i, withoutData(block));
+        if (body.equals(segment(i / SEGMENT_BLOCKS)[i % SEGMENT_BLOCKS]))
+            changedBodies.remove(i);
+        else
+            changedBodies.put(i, body);
+    }
+
+    @Override
+    public int getDifficultyBits(int i) {
+        return i < coldHeaders.size() ? coldHeaders.getDifficultyBits(i) : get(i).getDifficultyBits();
+    }
+
+    @Override
+    public long getTimestampMillis(int i) {
+        return i < coldHeaders.size() ? coldHeaders.getTimestampMillis(i) : get(i).getTimestamp().getTime();
+    }
+
+    /**
+     * Move the oldest segment of hot blocks to disk, keeping their headers.
+     */
+    private void spill() {
+        int segment = coldHeaders.size() / SEGMENT_BLOCKS;
+        List<Block> blocks = hot.subList(0, SEGMENT_BLOCKS);
+        String[] bodies = new String[SEGMENT_BLOCKS];
+        for (int i = 0; i < SEGMENT_BLOCKS; i++)
+            bodies[i] = blocks.get(i).getData();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(segmentPath(segment)))))) {
+            for (String body : bodies) {
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments = segment + 1;
+        for (Block block : blocks)
+            coldHeaders.add(withoutData(block));
+        blocks.clear();
+    }
+
+    /**
+     * Get the bodies of a cold segment, from the cache or from disk.
+     */
+    private String[] segment(int segment) {
+        synchronized (cache) {
+            String[] bodies = cache.get(segment);
+            if (bodies != null)
+                return bodies;
+        }
+        // Loaded outside the cache lock, so a slow read does not hold up cached ones; two
+        // readers missing at once both load the segment, and the second copy replaces the first
+        String[] bodies = new String[SEGMENT_BLOCKS];
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(Files.newInputStream(segmentPath(segment)))))) {
+            for (int i = 0; i < SEGMENT_BLOCKS; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                bodies[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (cache) {
+            cache(segment, bodies);
+        }
+        return bodies;
+    }
+
+    /**
+     * Add a segment to the cache, evicting the least recently used ones beyond the limit. The
+     * segment just added is kept even when it alone is over the limit. Call holding the cache.
+     */
+    private void cache(int segment, String[] bodies) {
+        String[] replaced = cache.put(segment, bodies);
+        if (replaced != null)
+            cachedBytes -= bytes(replaced);
+        cachedBytes += bytes(bodies);
+        Iterator<Map.Entry<Integer, String[]>> eldest = cache.entrySet().iterator();
+        while (cachedBytes > cacheBytes && cache.size() > 1) {
+            cachedBytes -= bytes(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Delete the segment files written by this store, for the shutdown hook.
+     */
+    private void deleteSegments() {
+        for (int segment = 0; segment < segments; segment++) {
+            try {
+                Files.deleteIfExists(segmentPath(segment));
+            } catch (IOException e) {
+                // Nothing more can be done while exiting
+            }
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve("segment-" + segment + ".bin");
+    }
+
+    private static Block withoutData(Block block) {
+        Block header = new Block(block.getIndex(), block.getTimestamp(), "", block.getDifficulty());
+        if (block.getDifficultyBits() != 4 * block.getDifficulty())
+            header.setDifficultyBits(block.getDifficultyBits());
+        header.setPreviousHash(block.getPreviousHashValue());
+        header.setNonce(block.getNonce());
+        return header;
+    }
+
+    /**
+     * Estimate the heap taken by a segment's bodies, at two bytes a character.
+     */
+    private static long bytes(String[] bodies) {
+        long bytes = 0;
+        for (String body : bodies)
+            bytes += 2L * body.length();
+        return bytes;
+    }
+}
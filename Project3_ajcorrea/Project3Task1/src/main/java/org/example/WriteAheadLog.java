@@ -0,0 +1,305 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Makes changes to the chain and the mempool durable, as one JSON record per line in an
+ * append-only file. On startup the file is replayed to rebuild the chain exactly as it was,
+ * corrupted blocks included, along with the transactions still waiting in the mempool.
+ * <p>
+ * Records:
+ * <pre>
+ * {"op":"block","block":{...}}               block appended to the chain
+ * {"op":"block","block":{...},"committed":[...]}   assembled block and its transactions
+ * {"op":"set","index":i,"block":{...}}       block changed in place, by op 4 or a repair
+ * {"op":"chainHash","hash":"..."}            chain hash reset at the end of a repair
+ * {"op":"tx","transaction":"...","priority":p}   transaction accepted into the mempool
+ * </pre>
+ * A block record written by the BlockAssembler carries a "committed" array naming the mempool
+ * transactions it holds, so replaying the block takes them out of the mempool in the same step,
+ * and a crash can never leave a transaction both in the chain and pending. Other blocks commit
+ * nothing, whatever their data looks like.
+ * <p>
+ * Each record is written just before its change is made, under the chain lock, so a change
+ * that cannot be logged is not made at all. Records are made durable according to the
+ * durability mode:
+ * <pre>
+ * sync    every record is synced to disk before the change returns
+ * group   a flusher thread syncs everything written so far in one go, and a request waits
+ *         for the sync covering its records before it is answered; records written while a
+ *         sync is under way all share the next one
+ * async   the flusher syncs in the same way, but nothing waits for it
+ * </pre>
+ * Once a sync fails the log stops taking records, and requests waiting for a sync fail, as
+ * nothing more can be promised about what is on disk.
+ * <p>
+ * Settings come from system properties:
+ * <pre>
+ * -Dwal.file=chain.wal          log file; there is no log unless this is set
+ * -Dwal.durability=group        sync, group or async
+ * -Dwal.flushMillis=0           time the flusher gathers records before each sync
+ * </pre>
+ */
+public class WriteAheadLog {
+    public enum Durability { SYNC, GROUP, ASYNC }
+
+    private final FileChannel channel;
+    private final Durability durability;
+    private final long flushMillis;
+    // Records written and records known to be on disk, counted from 1; guarded by this
+    private long written;
+    private long synced;
+    // Why the flusher stopped, or null while it runs; guarded by this
+    private IOException failure;
+
+    /**
+     * Constructor for a log appending to an open file.
+     *
+     * @param channel     The log file, positioned at its end.
+     * @param durability  When records are synced to disk.
+     * @param flushMillis Time the flusher gathers records before each sync.
+     */
+    public WriteAheadLog(FileChannel channel, Durability durability, long flushMillis) {
+        this.channel = channel;
+        this.durability = durability;
+        this.flushMillis = flushMillis;
+        if (durability != Durability.SYNC) {
+            Thread flusher = new Thread(this::flushLoop, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Open the log named by the wal.* system properties.
+     *
+     * @return The log, or null if no wal.file is set.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static WriteAheadLog fromSystemProperties() throws IOException {
+        String file = System.getProperty("wal.file");
+        if (file == null)
+            return null;
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new WriteAheadLog(channel,
+                Durability.valueOf(System.getProperty("wal.durability", "group").toUpperCase()),
+                Long.getLong("wal.flushMillis", 0));
+    }
+
+    /**
+     * Rebuild the chain and the mempool from the records in the log. Call before either is
+     * given the log, so replayed changes are not written again. A record cut short by a crash
+     * is dropped from the end of the file.
+     *
+     * @param chain   An empty chain.
+     * @param mempool An empty mempool.
+     * @return The number of records replayed.
+     * @throws IOException              If the file cannot be read.
+     * @throws NoSuchAlgorithmException If SHA-256 algorithm is not available.
+     */
+    public long replay(BlockChain chain, Mempool mempool) throws IOException, NoSuchAlgorithmException {
+        // Transactions still waiting, in the order they were accepted
+        Map<String, Integer> pending = new LinkedHashMap<>();
+        long records = 0;
+        // The file is read a buffer at a time, so it may grow past what one array can hold
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = 0;
+        // End of the last complete record
+        long start = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) >= 0) {
+            byte[] bytes = buffer.array();
+            int from = 0;
+            for (int end = 0; end < read; end++) {
+                if (bytes[end] != '\n')
+                    continue;
+                line.write(bytes, from, end - from);
+                replay(JsonParser.parseString(line.toString(StandardCharsets.UTF_8)).getAsJsonObject(),
+                        chain, pending);
+                line.reset();
+                records++;
+                from = end + 1;
+                start = position + from;
+            }
+            line.write(bytes, from, read - from);
+            position += read;
+            buffer.clear();
+        }
+        for (Map.Entry<String, Integer> transaction : pending.entrySet())
+            mempool.submit(transaction.getKey(), transaction.getValue());
+
+        // Anything after the last newline is a record that was never completely written
+        channel.truncate(start);
+        channel.position(start);
+        synchronized (this) {
+            written = synced = records;
+        }
+        return records;
+    }
+
+    /**
+     * Apply one record read back from the log.
+     *
+     * @param record  The record.
+     * @param chain   The chain being rebuilt.
+     * @param pending Transactions accepted and not yet committed, in order.
+     */
+    private static void replay(JsonObject record, BlockChain chain, Map<String, Integer> pending)
+            throws NoSuchAlgorithmException {
+        switch (record.get("op").getAsString()) {
+            case "tx":
+                pending.put(record.get("transaction").getAsString(), record.get("priority").getAsInt());
+                break;
+            case "block":
+                chain.replay(record);
+                if (record.has("committed"))
+                    for (JsonElement transaction : record.getAsJsonArray("committed"))
+                        pending.remove(transaction.getAsString());
+                break;
+            default:
+                chain.replay(record);
+        }
+    }
+
+    /**
+     * Write a record, before making the change it describes. Safe to call from any thread; in
+     * sync mode it returns once the record is on disk.
+     *
+     * @param record The record.
+     * @return The record's sequence number, for awaitDurable.
+     * @throws UncheckedIOException If the record cannot be written, in which case the change
+     *                              must not be made.
+     */
+    public synchronized long append(JsonObject record) {
+        if (failure != null)
+            throw new UncheckedIOException("Write-ahead log sync failed earlier", failure);
+        long position = -1;
+        try {
+            position = channel.position();
+            ByteBuffer bytes = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+            if (durability == Durability.SYNC)
+                channel.force(false);
+        } catch (IOException e) {
+            // Take back whatever part of the record was written, as its change will not be made
+            try {
+                if (position >= 0) {
+                    channel.truncate(position);
+                    channel.position(position);
+                }
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw new UncheckedIOException(e);
+        }
+        written++;
+        if (durability == Durability.SYNC)
+            synced = written;
+        else
+            notifyAll();
+        return written;
+    }
+
+    /**
+     * Get the sequence number of the last record written.
+     *
+     * @return The number of records written so far.
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * Wait until a record is on disk. Only group mode waits: sync mode has already synced it
+     * and async mode does not promise to.
+     *
+     * @param sequence The sequence number returned by append.
+     * @throws IOException If the sync failed, so the record may never reach the disk.
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        if (durability != Durability.GROUP)
+            return;
+        synchronized (this) {
+            try {
+                while (synced < sequence && failure == null)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (synced < sequence && failure != null)
+                throw new IOException("Write-ahead log sync failed", failure);
+        }
+    }
+
+    /**
+     * Sync everything written so far and close the file, e.g. before the server exits. Later
+     * changes can no longer be logged. Closing a closed log does nothing.
+     */
+    public synchronized void close() {
+        if (!channel.isOpen())
+            return;
+        try {
+            channel.force(false);
+            synced = written;
+            notifyAll();
+            channel.close();
+        } catch (IOException e) {
+            EchoServerTCP.log.warn("Write-ahead log close failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sync whatever has been written, once per batch, for as long as the server runs.
+     */
+    private void flushLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (written == synced)
+                        wait();
+                }
+                if (flushMillis > 0)
+                    Thread.sleep(flushMillis);
+                long batch;
+                synchronized (this) {
+                    batch = written;
+                }
+                // Records written during the sync wait for the next one
+                channel.force(false);
+                synchronized (this) {
+                    synced = batch;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            EchoServerTCP.log.warn("Write-ahead log sync failed: " + e.getMessage());
+            // Wake the waiters, or they would wait for a sync that never comes
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        }
+    }
+}
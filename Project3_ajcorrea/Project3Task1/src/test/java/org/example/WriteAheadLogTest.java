@@ -0,0 +1,101 @@
+// Ariane Correa
+// ajcorrea
+
+package org.example;
+
+import com.google.gson.JsonArray;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Replays a log written by one chain and mempool into fresh ones, as a restarted server does.
+ */
+class WriteAheadLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayRebuildsChainAndMempool() throws IOException, NoSuchAlgorithmException {
+        Path file = dir.resolve("chain.wal");
+        BlockChain chain = new BlockChain();
+        Mempool mempool = new Mempool(100);
+        WriteAheadLog wal = open(file);
+        assertEquals(0, wal.replay(chain, mempool));
+        chain.setWriteAheadLog(wal);
+        mempool.setWriteAheadLog(wal);
+
+        Block genesis = new Block(0, chain.getTime(), "Genesis", 1);
+        genesis.setPreviousHash("");
+        chain.addBlock(genesis);
+        chain.addBlock(new Block(1, chain.getTime(), "one", 1));
+        chain.addBlock(new Block(2, chain.getTime(), "two", 1));
+        chain.setBlockData(1, "tampered");
+        chain.setBlockDifficulty(2, 2);
+        mempool.submit("a", 1);
+        mempool.submit("b", 5);
+        mempool.submit("c", 3);
+        // Committed by the block holding it, as the assembler does, with no record of its own
+        List<Mempool.Entry> batch = mempool.take(1);
+        JsonArray transactions = new JsonArray();
+        transactions.add(batch.get(0).transaction);
+        Block assembled = new Block(3, chain.getTime(), transactions.toString(), 1);
+        assembled.setPreviousHash(chain.getChainHashValue());
+        assembled.proofOfWork();
+        assertEquals("TRUE", chain.appendMinedBlock(assembled, transactions));
+        mempool.committed(batch);
+        // A client's block that only looks like an assembled one commits nothing
+        chain.addBlock(new Block(4, chain.getTime(), "[\"a\"]", 1));
+        wal.close();
+
+        BlockChain replayed = new BlockChain();
+        Mempool replayedMempool = new Mempool(100);
+        assertEquals(10, open(file).replay(replayed, replayedMempool));
+        assertEquals(chain.toString(), replayed.toString());
+        assertEquals(chain.getChainHash(), replayed.getChainHash());
+        assertEquals(chain.getTotalDifficulty(), replayed.getTotalDifficulty());
+        assertEquals(chain.isChainValid(), replayed.isChainValid());
+        assertEquals(2, replayedMempool.size());
+    }
+
+    @Test
+    void replayDropsRecordCutShort() throws IOException, NoSuchAlgorithmException {
+        Path file = dir.resolve("chain.wal");
+        BlockChain chain = new BlockChain();
+        WriteAheadLog wal = open(file);
+        wal.replay(chain, new Mempool(100));
+        chain.setWriteAheadLog(wal);
+        Block genesis = new Block(0, chain.getTime(), "Genesis", 1);
+        genesis.setPreviousHash("");
+        chain.addBlock(genesis);
+        wal.close();
+        long complete = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap("{\"op\":\"block\",\"blo".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        BlockChain replayed = new BlockChain();
+        WriteAheadLog reopened = open(file);
+        assertEquals(1, reopened.replay(replayed, new Mempool(100)));
+        assertEquals(1, replayed.getChainSize());
+        assertEquals(complete, Files.size(file));
+        reopened.close();
+    }
+
+    private static WriteAheadLog open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new WriteAheadLog(channel, WriteAheadLog.Durability.SYNC, 0);
+    }
+}